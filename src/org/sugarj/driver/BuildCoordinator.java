@@ -0,0 +1,203 @@
+package org.sugarj.driver;
+
+import static org.sugarj.common.Log.log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.sugarj.cleardep.build.BuildManager;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+
+/**
+ * Coordinates driver runs requested by editors and background builds.
+ *
+ * Runs are keyed by the set of files they process, and runs for the same
+ * files are executed one after the other. A new request for some files
+ * supersedes the older requests for the same files in the same mode
+ * (parse-only or not): a running build is interrupted at its next step and
+ * queued requests are dropped, such that only the latest edit gets
+ * processed. Background builds do not start while editor builds are
+ * queued or running, and editor requests for some files are queued ahead
+ * of background requests for the same files.
+ *
+ * Each compiler session has its own coordinator, which runs the builds it
+ * is asked for in its session.
+ */
+public class BuildCoordinator {
+
+  public static enum Priority { EDITOR, BACKGROUND }
+
+  /**
+   * @return the coordinator of the default session.
+   */
+  public static BuildCoordinator getInstance() {
+    return CompilerSession.getDefault().getBuildCoordinator();
+  }
+
+  /**
+   * A request for a driver run.
+   */
+  static class Ticket {
+    private final DriverInput input;
+    private final Priority priority;
+    private boolean superseded;
+    private Driver driver;
+
+    private Ticket(DriverInput input, Priority priority) {
+      this.input = input;
+      this.priority = priority;
+    }
+
+    /**
+     * Called by the driver of this ticket when it starts building.
+     */
+    synchronized void started(Driver driver) {
+      this.driver = driver;
+      if (superseded)
+        driver.interrupt();
+    }
+
+    private synchronized void supersede() {
+      superseded = true;
+      if (driver != null)
+        driver.interrupt();
+    }
+
+    private synchronized boolean isSuperseded() {
+      return superseded;
+    }
+  }
+
+  /**
+   * Running and queued tickets for a set of files.
+   */
+  private static class Slot {
+    Ticket running;
+    final List<Ticket> queued = new LinkedList<Ticket>();
+  }
+
+  private final CompilerSession session;
+
+  private final Map<Set<? extends Path>, Slot> slots = new HashMap<Set<? extends Path>, Slot>();
+
+  /*
+   * editor tickets that are queued or running
+   */
+  private int editorTickets = 0;
+
+  BuildCoordinator(CompilerSession session) {
+    this.session = session;
+  }
+
+  /**
+   * Builds `input` once all earlier requests for the same files finished or were superseded.
+   *
+   * @return the result of the build, or null if a newer request superseded this one.
+   */
+  public Result build(DriverInput input, Priority priority) throws Exception {
+    Set<? extends Path> files = Collections.singleton(input.sourceFilePath);
+    Ticket ticket = new Ticket(input, priority);
+
+    synchronized (this) {
+      Slot slot = slots.get(files);
+      if (slot == null) {
+        slot = new Slot();
+        slots.put(files, slot);
+      }
+
+      for (Iterator<Ticket> it = slot.queued.iterator(); it.hasNext(); ) {
+        Ticket t = it.next();
+        if (t.input.parseOnly == input.parseOnly) {
+          t.supersede();
+          it.remove();
+          dequeued(t);
+        }
+      }
+      if (slot.running != null && slot.running.input.parseOnly == input.parseOnly) {
+        log.log("interrupting " + files, Log.CORE);
+        slot.running.supersede();
+      }
+      // wake up superseded tickets
+      notifyAll();
+
+      enqueue(slot, ticket);
+      if (priority == Priority.EDITOR)
+        editorTickets++;
+
+      try {
+        while (!mayStart(slot, ticket)) {
+          wait();
+          if (ticket.isSuperseded())
+            return null;
+        }
+      } catch (InterruptedException e) {
+        if (slot.queued.remove(ticket))
+          dequeued(ticket);
+        removeIfIdle(files, slot);
+        notifyAll();
+        throw e;
+      }
+
+      slot.queued.remove(ticket);
+      slot.running = ticket;
+    }
+
+    input.setSession(session);
+    input.ticket = ticket;
+    try {
+      Result result = BuildManager.build(new DriverBuildRequest(input));
+      return ticket.isSuperseded() ? null : result;
+    } catch (Exception e) {
+      if (ticket.isSuperseded())
+        return null;
+      throw e;
+    } finally {
+      input.ticket = null;
+      synchronized (this) {
+        Slot slot = slots.get(files);
+        slot.running = null;
+        dequeued(ticket);
+        removeIfIdle(files, slot);
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Queues `ticket` in `slot`. Editor tickets go ahead of queued background
+   * tickets, which cannot start while editor tickets wait.
+   */
+  private void enqueue(Slot slot, Ticket ticket) {
+    if (ticket.priority == Priority.EDITOR)
+      for (ListIterator<Ticket> it = slot.queued.listIterator(); it.hasNext(); )
+        if (it.next().priority == Priority.BACKGROUND) {
+          it.previous();
+          it.add(ticket);
+          return;
+        }
+    slot.queued.add(ticket);
+  }
+
+  private boolean mayStart(Slot slot, Ticket ticket) {
+    return slot.running == null &&
+           slot.queued.get(0) == ticket &&
+           (ticket.priority == Priority.EDITOR || editorTickets == 0);
+  }
+
+  private void dequeued(Ticket ticket) {
+    if (ticket.priority == Priority.EDITOR)
+      editorTickets--;
+  }
+
+  private void removeIfIdle(Set<? extends Path> files, Slot slot) {
+    if (slot.running == null && slot.queued.isEmpty())
+      slots.remove(files);
+  }
+}
@@ -0,0 +1,183 @@
+package org.sugarj.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.AbsolutePath;
+import org.sugarj.common.path.Path;
+
+/**
+ * Cancellation of a driver run that reaches into long-running tool
+ * invocations, such as pack-sdf, sdf2table, strj, and the execution of
+ * transformations.
+ *
+ * A cancellable tool invocation runs on a worker thread while the calling
+ * thread polls for cancellation. On cancellation, the worker thread is
+ * interrupted, the invocation's abort action is run, and the caller
+ * continues with an InterruptedIOException without waiting for the worker.
+ * Resources used by aborted invocations, such as Stratego contexts, must
+ * be discarded by the abort action rather than handed back to shared pools.
+ *
+ * Since an aborted worker may keep running, tools write their output to
+ * a {@link PrivateOutput}, which only reaches its target if the invocation
+ * completes, and which the worker deletes otherwise.
+ *
+ * Invocations that call back into the driver, such as transformations,
+ * stay on the calling thread and are aborted by a watchdog instead.
+ */
+public class Cancellation {
+
+  /*
+   * interval for checking cancellation (in milliseconds)
+   */
+  private static final long POLL_INTERVAL = 50;
+
+  /*
+   * worker threads and watchdog of the compiler session
+   */
+  private final ExecutorService workers;
+  private final ScheduledExecutorService watchdog;
+
+  private final IProgressMonitor monitor;
+  private volatile boolean cancelled;
+
+  public Cancellation(IProgressMonitor monitor, CompilerSession session) {
+    this.monitor = monitor;
+    this.workers = session.getToolExecutor();
+    this.watchdog = session.getWatchdog();
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled || monitor != null && monitor.isCanceled();
+  }
+
+  /**
+   * Runs `task` unless or until this cancellation is triggered.
+   *
+   * @param abort run after interrupting the worker if the invocation is cancelled,
+   *   or instead of the invocation if it is cancelled before it starts, may be null.
+   * @throws InterruptedIOException if the invocation was cancelled.
+   */
+  public <T> T run(String name, Callable<T> task, Runnable abort) throws IOException {
+    if (isCancelled()) {
+      if (abort != null)
+        abort.run();
+      throw new InterruptedIOException(name + " cancelled");
+    }
+
+    Future<T> future = workers.submit(task);
+    try {
+      while (true)
+        try {
+          return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          if (isCancelled()) {
+            abort(future, abort);
+            throw new InterruptedIOException(name + " cancelled");
+          }
+        }
+    } catch (InterruptedException e) {
+      abort(future, abort);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(name + " interrupted");
+    } catch (ExecutionException e) {
+      // failures of cancelled invocations must not pass for genuine ones
+      if (isCancelled())
+        throw new InterruptedIOException(name + " cancelled");
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new RuntimeException(name + " failed", cause);
+    }
+  }
+
+  /**
+   * Runs `abort` once if this cancellation is triggered before the returned
+   * watch is cancelled. The caller cancels the watch when its invocation ends.
+   */
+  public Future<?> watch(final Runnable abort) {
+    final AtomicBoolean aborted = new AtomicBoolean();
+    return watchdog.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (isCancelled() && aborted.compareAndSet(false, true))
+          abort.run();
+      }
+    }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  private static void abort(Future<?> future, Runnable abort) {
+    future.cancel(true);
+    if (abort != null)
+      abort.run();
+  }
+  
+  /**
+   * Output file of a cancellable tool invocation. The tool writes a private
+   * file next to the target, with the target's extension, since tools may
+   * derive the output format from it. The worker publishes the private file to the
+   * target when the tool completes, unless the invocation was aborted before,
+   * and deletes it otherwise.
+   */
+  public static class PrivateOutput {
+    private final Path target;
+    private final File file;
+    private final AtomicBoolean settled = new AtomicBoolean();
+    
+    public PrivateOutput(Path target) throws IOException {
+      this.target = target;
+      File f = target.getFile().getAbsoluteFile();
+      String ext = FileCommands.getExtension(target);
+      if (ext == null || ext.isEmpty())
+        this.file = File.createTempFile(f.getName() + "-part", null, f.getParentFile());
+      else
+        this.file = File.createTempFile(FileCommands.fileName(target) + "-part", "." + ext, f.getParentFile());
+    }
+    
+    /**
+     * @return the file the tool writes.
+     */
+    public Path getPath() {
+      return new AbsolutePath(file.getAbsolutePath());
+    }
+    
+    /**
+     * Moves the private file to the target unless the invocation was aborted.
+     * Called by the worker when the tool completed.
+     */
+    public void publish() throws IOException {
+      if (settled.compareAndSet(false, true) && file.exists())
+        Files.move(file.toPath(), target.getFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Deletes the private file and prevents its publication. Called by the
+     * abort action and by the worker when it exits.
+     */
+    public void discard() {
+      settled.set(true);
+      file.delete();
+    }
+  }
+}
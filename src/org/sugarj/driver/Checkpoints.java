@@ -0,0 +1,177 @@
+package org.sugarj.driver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.sugarj.cleardep.stamp.Stamp;
+import org.sugarj.common.path.Path;
+import org.sugarj.driver.caching.Digests;
+
+/**
+ * Checkpoints of the processing of an edited source file.
+ *
+ * After parsing, analyzing, desugaring, and renaming a toplevel declaration,
+ * the driver records a checkpoint with the extent and digest of the source
+ * text consumed so far, the state that determined the transformation of the
+ * declaration, and the transformed declaration. A later run on the same file
+ * resumes from these checkpoints: as long as the source prefix and the
+ * transformation state of a step are unchanged, it reuses the transformed
+ * declaration instead of running the transformations again.
+ *
+ * Each compiler session keeps the checkpoints of its most recently edited
+ * files in memory.
+ */
+class Checkpoints {
+
+  private static final int MAX_FILES = 16;
+
+  /**
+   * @return an empty registry of checkpoints that retains the most recently committed files.
+   */
+  static Map<String, Checkpoints> newRegistry() {
+    return new LinkedHashMap<String, Checkpoints>(16, 0.75f, true) {
+      private static final long serialVersionUID = 4170362278420915871L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Checkpoints> eldest) {
+        return size() > MAX_FILES;
+      }
+    };
+  }
+
+  private static class Checkpoint {
+    final int start;
+    final int end;
+    final String digest;
+    final State state;
+    /*
+     * null if the step cannot be reused
+     */
+    final IStrategoTerm result;
+
+    Checkpoint(int start, int end, String digest, State state, IStrategoTerm result) {
+      this.start = start;
+      this.end = end;
+      this.digest = digest;
+      this.state = state;
+      this.result = result;
+    }
+  }
+
+  /**
+   * The state that determines the transformation of a toplevel declaration:
+   * the composed grammars and transformations, the files they consist of, and
+   * the current renamings.
+   */
+  static class State {
+    final List<String> sdfImports;
+    final List<String> strImports;
+    final Map<Path, Stamp> requirements;
+    final String renamings;
+
+    State(List<String> sdfImports, List<String> strImports, Map<Path, Stamp> requirements, String renamings) {
+      this.sdfImports = new ArrayList<String>(sdfImports);
+      this.strImports = new ArrayList<String>(strImports);
+      this.requirements = requirements;
+      this.renamings = renamings;
+    }
+
+    boolean sameAs(State other) {
+      return sdfImports.equals(other.sdfImports) &&
+             strImports.equals(other.strImports) &&
+             renamings.equals(other.renamings) &&
+             requirements.equals(other.requirements);
+    }
+  }
+
+  private final Map<String, Checkpoints> registry;
+  private final String source;
+  private final Checkpoints previous;
+  private final List<Checkpoint> steps = new ArrayList<Checkpoint>();
+
+  private String digest = "";
+  private int digestEnd = 0;
+  private boolean resuming;
+
+  /**
+   * Starts recording checkpoints for `source`, resuming from the checkpoints of
+   * the previous run on the same file in the same session, if any.
+   */
+  static Checkpoints begin(CompilerSession session, String key, String source) {
+    Map<String, Checkpoints> registry = session.getCheckpoints();
+    Checkpoints previous;
+    synchronized (registry) {
+      previous = registry.get(key);
+    }
+    return new Checkpoints(registry, source, previous);
+  }
+
+  /**
+   * Makes the recorded checkpoints available to later runs of the session.
+   */
+  void commit(String key) {
+    synchronized (registry) {
+      registry.put(key, this);
+    }
+  }
+
+  private Checkpoints(Map<String, Checkpoints> registry, String source, Checkpoints previous) {
+    this.registry = registry;
+    this.source = source;
+    this.previous = previous;
+    this.resuming = previous != null;
+  }
+
+  /**
+   * @return true iff the next step may reuse a checkpoint of the previous run.
+   */
+  boolean isResuming() {
+    return resuming && steps.size() < previous.steps.size();
+  }
+
+  /**
+   * @param start offset at which the declaration of the next step starts.
+   * @param end offset after the declaration of the next step.
+   * @param state transformation state before the next step.
+   * @return the transformed declaration of the previous run's corresponding step,
+   *   or null if the source prefix or the transformation state changed.
+   */
+  IStrategoTerm resume(int start, int end, State state) {
+    if (!isResuming())
+      return null;
+
+    Checkpoint cp = previous.steps.get(steps.size());
+    if (cp.start != start || cp.end != end || !cp.digest.equals(digestUpTo(end))) {
+      // the source changed; later steps do not correspond anymore
+      resuming = false;
+      return null;
+    }
+    if (cp.result == null || !cp.state.sameAs(state))
+      return null;
+    return cp.result;
+  }
+
+  /**
+   * Records the transformed declaration of the current step.
+   *
+   * @param reusable false if the transformation of this step had effects
+   *   beyond its result, in which case later runs need to repeat it.
+   */
+  void record(int start, int end, State state, IStrategoTerm result, boolean reusable) {
+    steps.add(new Checkpoint(start, end, digestUpTo(end), state, reusable ? result : null));
+  }
+
+  /**
+   * @return digest of the source text up to `end`, chained over the steps so far.
+   */
+  private String digestUpTo(int end) {
+    if (end != digestEnd) {
+      digest = Digests.digest(digest + source.substring(digestEnd, end));
+      digestEnd = end;
+    }
+    return digest;
+  }
+}
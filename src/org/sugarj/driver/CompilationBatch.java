@@ -0,0 +1,64 @@
+package org.sugarj.driver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.sugarj.common.path.Path;
+
+/**
+ * Generated sources of the modules built during a single driver run,
+ * which are compiled together by the driver that started the run.
+ *
+ * Modules defer their generated sources to the result of that driver
+ * (see {@link Result#getDeferredSourceFiles()}), such that the base
+ * processor compiles all of them in one invocation.
+ */
+public class CompilationBatch {
+
+  private final Result owner;
+  private final Set<String> modulePaths = new HashSet<>();
+  private final Map<Path, Result> deferredResults = new HashMap<>();
+
+  public CompilationBatch(Result owner) {
+    this.owner = owner;
+  }
+
+  /**
+   * Defers compilation of the generated files of module `modulePath` to the owner of this batch.
+   */
+  public void defer(Result result, String modulePath, Set<? extends Path> sourceFiles, Set<? extends Path> generatedFiles) {
+    synchronized (owner) {
+      result.delegateCompilation(owner, sourceFiles, generatedFiles);
+      modulePaths.add(modulePath);
+      for (Path p : generatedFiles)
+        deferredResults.put(p, result);
+    }
+  }
+
+  /**
+   * @return true iff module `modulePath` was built but not compiled yet.
+   */
+  public boolean isDeferred(String modulePath) {
+    synchronized (owner) {
+      return modulePaths.contains(modulePath);
+    }
+  }
+
+  /**
+   * @return the result of the module that generated `file`, or null if `file` was not deferred.
+   */
+  public Result getDeferredResult(Path file) {
+    synchronized (owner) {
+      return deferredResults.get(file);
+    }
+  }
+
+  public Set<String> getDeferredModules() {
+    synchronized (owner) {
+      return Collections.unmodifiableSet(new HashSet<>(modulePaths));
+    }
+  }
+}
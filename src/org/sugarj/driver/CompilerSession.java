@@ -0,0 +1,284 @@
+package org.sugarj.driver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.sugarj.AbstractBaseLanguage;
+import org.sugarj.cleardep.BuildUnit;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.Path;
+import org.sugarj.common.path.RelativePath;
+import org.sugarj.common.util.Pair;
+import org.sugarj.driver.caching.ModuleKey;
+import org.sugarj.driver.caching.ModuleKeyCache;
+import org.sugarj.stdlib.StdLib;
+import org.sugarj.util.ProcessingListener;
+
+/**
+ * State shared by the drivers of a compiler session: the persistent
+ * grammar and transformation caches of each cache directory, processing
+ * listeners, checkpoints of edited files, the coordination of editor and
+ * background builds, and worker threads.
+ *
+ * All methods are thread safe, such that independent builds can run in
+ * parallel within a session. Builds that use different cache directories
+ * do not contend for any lock. Builds without an explicit session use the
+ * default session.
+ *
+ * Some caches remain process-wide, since their entries are validated
+ * against the files they derive from and cannot leak state between
+ * sessions: loaded models ({@link org.sugarj.driver.caching.ModelCache}),
+ * archive indexes ({@link org.sugarj.driver.caching.IncludePathIndex}),
+ * and pooled Stratego contexts ({@link SugarJContexts}).
+ */
+public class CompilerSession {
+
+  private static final CompilerSession defaultSession = new CompilerSession();
+
+  public static CompilerSession getDefault() {
+    return defaultSession;
+  }
+
+  /*
+   * cache location -> caches
+   */
+  private final ConcurrentMap<Path, CacheDir> cacheDirs = new ConcurrentHashMap<Path, CacheDir>();
+
+  private final List<ProcessingListener> processingListeners = new CopyOnWriteArrayList<ProcessingListener>();
+
+  /*
+   * Locates and loads imported modules ahead of their builds. Bounded,
+   * since prefetching tasks never wait for each other.
+   */
+  private final ExecutorService importExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("SugarJ import prefetch"));
+
+  /*
+   * runs parsers, such that they can be abandoned when they time out
+   */
+  private final ExecutorService parseExecutor = Executors.newCachedThreadPool(daemonThreads("SugarJ parser"));
+
+  /*
+   * runs cancellable tool invocations; bounded, such that workers abandoned
+   * by aborted invocations cannot pile up; idle workers terminate
+   */
+  private final ThreadPoolExecutor toolExecutor = new ThreadPoolExecutor(
+      Runtime.getRuntime().availableProcessors(),
+      Runtime.getRuntime().availableProcessors(),
+      60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      daemonThreads("SugarJ cancellable tool"));
+  {
+    toolExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /*
+   * aborts cancelled invocations that stay on the calling thread
+   */
+  private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("SugarJ cancellation watchdog"));
+
+  /*
+   * a single writer thread keeps the order of batches of generated files
+   */
+  private final ExecutorService outputWriter = Executors.newSingleThreadExecutor(daemonThreads("SugarJ output writer"));
+
+  private final Map<String, Checkpoints> checkpoints = Checkpoints.newRegistry();
+
+  private final BuildCoordinator buildCoordinator = new BuildCoordinator(this);
+
+  public void addProcessingDoneListener(ProcessingListener listener) {
+    processingListeners.add(listener);
+  }
+
+  public void removeProcessingDoneListener(ProcessingListener listener) {
+    processingListeners.remove(listener);
+  }
+
+  public void notifyProcessingDone(BuildUnit<Result> result) {
+    for (ProcessingListener listener : processingListeners)
+      listener.processingDone(result);
+  }
+
+  public ExecutorService getImportExecutor() {
+    return importExecutor;
+  }
+
+  public ExecutorService getParseExecutor() {
+    return parseExecutor;
+  }
+
+  public ExecutorService getToolExecutor() {
+    return toolExecutor;
+  }
+
+  public ScheduledExecutorService getWatchdog() {
+    return watchdog;
+  }
+
+  public ExecutorService getOutputWriter() {
+    return outputWriter;
+  }
+
+  public BuildCoordinator getBuildCoordinator() {
+    return buildCoordinator;
+  }
+
+  /**
+   * @return checkpoints of the most recently edited files, guarded by the map itself.
+   */
+  Map<String, Checkpoints> getCheckpoints() {
+    return checkpoints;
+  }
+
+  /**
+   * Loads the caches of the environment's cache directory, unless they are loaded already.
+   *
+   * @return the parse-table cache and the assimilator cache for `baseLang`,
+   *   or null if the environment has no cache directory.
+   */
+  public Pair<ModuleKeyCache<Path>, ModuleKeyCache<Path>> getCaches(AbstractBaseLanguage baseLang, Environment environment) throws IOException {
+    CacheDir dir = cacheDir(environment);
+    if (dir == null)
+      return null;
+    return dir.select(baseLang, environment);
+  }
+
+  /**
+   * Writes the caches of the environment's cache directory.
+   */
+  public void storeCaches(Environment environment) throws IOException {
+    CacheDir dir = cacheDir(environment);
+    if (dir != null)
+      dir.store(environment);
+  }
+
+  private CacheDir cacheDir(Environment environment) {
+    Path cacheDir = environment.getCacheDir();
+    if (cacheDir == null)
+      return null;
+
+    CacheDir dir = cacheDirs.get(cacheDir);
+    if (dir == null) {
+      CacheDir fresh = new CacheDir();
+      dir = cacheDirs.putIfAbsent(cacheDir, fresh);
+      if (dir == null)
+        dir = fresh;
+    }
+    return dir;
+  }
+
+  /**
+   * Caches of a single cache directory, guarded by the directory's own lock.
+   */
+  private static class CacheDir {
+    private boolean loaded;
+    private ModuleKeyCache<Path> sdfCache;
+    private ModuleKeyCache<Path> strCache;
+
+    synchronized Pair<ModuleKeyCache<Path>, ModuleKeyCache<Path>> select(AbstractBaseLanguage baseLang, Environment environment) throws IOException {
+      if (!loaded) {
+        load(environment);
+        loaded = true;
+      }
+
+      Path versionPath = environment.createCachePath(baseLang.getLanguageName() + ".version");
+      if (!FileCommands.exists(versionPath) || !baseLang.getVersion().equals(FileCommands.readFileAsString(versionPath))) {
+        sdfCache = new ModuleKeyCache<Path>();
+        strCache = new ModuleKeyCache<Path>();
+        FileCommands.writeToFile(versionPath, baseLang.getVersion());
+      }
+      return Pair.create(sdfCache, strCache);
+    }
+
+    private void load(Environment environment) throws IOException {
+      Path stdlibVersion = environment.createCachePath("version");
+      if (!stdlibVersion.getFile().exists() || !FileCommands.readFileAsString(stdlibVersion).equals(StdLib.VERSION)) {
+        for (File f : environment.getCacheDir().getFile().listFiles())
+          f.delete();
+        FileCommands.writeToFile(stdlibVersion, StdLib.VERSION);
+      }
+
+      sdfCache = read(environment.createCachePath("sdfCaches"), environment);
+      strCache = read(environment.createCachePath("strCaches"), environment);
+    }
+
+    synchronized void store(Environment environment) throws IOException {
+      if (!loaded)
+        return;
+
+      Path cacheVersion = environment.createCachePath("version");
+      FileCommands.writeToFile(cacheVersion, StdLib.VERSION);
+
+      write(sdfCache, environment.createCachePath("sdfCaches"));
+      write(strCache, environment.createCachePath("strCaches"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ModuleKeyCache<Path> read(Path cachePath, Environment environment) throws IOException {
+      ObjectInputStream in = null;
+      try {
+        in = new ObjectInputStream(new FileInputStream(cachePath.getFile()));
+        return relocate((ModuleKeyCache<Path>) in.readObject(), environment);
+      } catch (Exception e) {
+        return new ModuleKeyCache<Path>();
+      } finally {
+        if (in != null)
+          in.close();
+      }
+    }
+
+    private static void write(ModuleKeyCache<Path> cache, Path cachePath) throws IOException {
+      if (!cachePath.getFile().exists())
+        FileCommands.createFile(cachePath);
+
+      ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(cachePath.getFile()));
+      try {
+        oos.writeObject(cache);
+      } finally {
+        oos.close();
+      }
+    }
+
+    /**
+     * Rebases cached artifacts to the current cache directory, such that
+     * caches remain valid when the cache directory is moved or unpacked elsewhere.
+     */
+    private static ModuleKeyCache<Path> relocate(ModuleKeyCache<Path> cache, Environment env) {
+      ModuleKeyCache<Path> res = new ModuleKeyCache<Path>();
+      for (Entry<ModuleKey, Path> e : cache.entries().entrySet()) {
+        Path artifact = e.getValue();
+        if (artifact instanceof RelativePath)
+          artifact = env.createCachePath(((RelativePath) artifact).getRelativePath());
+        res.put(e.getKey(), artifact);
+      }
+      return res;
+    }
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
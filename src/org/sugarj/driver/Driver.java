@@ -4,26 +4,25 @@ import static org.sugarj.common.ATermCommands.fixSDF;
 import static org.sugarj.common.ATermCommands.getApplicationSubterm;
 import static org.sugarj.common.ATermCommands.isApplication;
 import static org.sugarj.common.Log.log;
-import static org.sugarj.driver.SDFCommands.extractSDF;
-import static org.sugarj.driver.STRCommands.extractEditor;
-import static org.sugarj.driver.STRCommands.extractSTR;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-import org.spoofax.interpreter.terms.IStrategoAppl;
 import org.spoofax.interpreter.terms.IStrategoList;
 import org.spoofax.interpreter.terms.IStrategoTerm;
 import org.spoofax.jsglr.client.ITreeBuilder;
@@ -60,14 +59,22 @@ import org.sugarj.common.path.RelativePath;
 import org.sugarj.common.util.ArrayUtils;
 import org.sugarj.common.util.Pair;
 import org.sugarj.driver.Renaming.FromTo;
+import org.sugarj.driver.caching.BinaryTerms;
+import org.sugarj.driver.caching.ModelCache;
+import org.sugarj.driver.caching.Digests;
+import org.sugarj.driver.caching.GeneratedFiles;
 import org.sugarj.driver.caching.ModuleKeyCache;
+import org.sugarj.driver.caching.TermCache;
+import org.sugarj.driver.caching.TransitiveFileRequirements;
 import org.sugarj.driver.declprovider.SourceToplevelDeclarationProvider;
 import org.sugarj.driver.declprovider.TermToplevelDeclarationProvider;
 import org.sugarj.driver.declprovider.ToplevelDeclarationProvider;
+import org.sugarj.driver.transformations.extraction.ExtensionExtraction;
 import org.sugarj.driver.transformations.primitive.SugarJPrimitivesLibrary;
 import org.sugarj.stdlib.StdLib;
 import org.sugarj.transformations.analysis.AnalysisDataInterop;
 import org.sugarj.util.ProcessingListener;
+import org.sugarj.util.StructuredLog;
 
 
 /**
@@ -75,17 +82,10 @@ import org.sugarj.util.ProcessingListener;
  */
 public class Driver extends Builder<DriverInput, Result> {
   
-//  private final static int PENDING_TIMEOUT = 30000;
-//
-//  private static Map<Set<? extends Path>, Entry<ToplevelDeclarationProvider, Driver>> pendingRuns = new HashMap<>();
-  
-  private static List<ProcessingListener> processingListener = new LinkedList<ProcessingListener>();
-
-  /**
-   * cache location -> cache
+  /*
+   * caches, listeners, and workers shared with other builds
    */
-  private static Map<Path, ModuleKeyCache<Path>> sdfCaches;
-  private static Map<Path, ModuleKeyCache<Path>> strCaches;
+  private final CompilerSession session;
   
   private ModuleKeyCache<Path> sdfCache;
   private ModuleKeyCache<Path> strCache;
@@ -97,6 +97,16 @@ public class Driver extends Builder<DriverInput, Result> {
 
   
   private boolean dependsOnModel = false;
+  
+  /*
+   * source files of imported modules located ahead of processing the imports, by module path
+   */
+  private final Map<String, RelativePath> prefetchedSourceFiles = new HashMap<>();
+  
+  /*
+   * failures of model transformations run ahead of their imports, by model and transformation
+   */
+  private final Map<String, String> failedTransformations = new HashMap<>();
 
   private Result driverResult;
   private Environment env;
@@ -106,12 +116,30 @@ public class Driver extends Builder<DriverInput, Result> {
   private Path currentGrammarSDF;
   private String currentGrammarModule;
   private Path currentGrammarTBL;
+  
+  /*
+   * digest of the module key of `currentGrammarTBL`, and the grammar
+   * module and requirements version `currentGrammarTBL` was compiled for
+   */
+  private String currentGrammarDigest;
+  private Path currentGrammarTBLSource;
+  private long currentGrammarTBLVersion;
   private List<String> availableSDFImports;
   
   private STRCommands str;
   private Path currentTransSTR;
   private String currentTransModule;
   private Path currentTransProg;
+  
+  /*
+   * digest of `currentTransProg`, and the transformation module and
+   * requirements version it was compiled for; `currentTransFailure`
+   * records a failed compilation of that version instead
+   */
+  private String currentTransDigest;
+  private Path currentTransProgSource;
+  private long currentTransProgVersion;
+  private StrategoException currentTransFailure;
   private List<String> availableSTRImports;
   
   private List<IStrategoTerm> sugaredBodyDecls = new ArrayList<IStrategoTerm>();
@@ -125,6 +153,11 @@ public class Driver extends Builder<DriverInput, Result> {
   
   private boolean interrupt = false;
   
+  /*
+   * reaches into long-running tool invocations
+   */
+  private final Cancellation cancellation;
+  
   private boolean inDesugaredDeclList;
   
   private AbstractBaseLanguage baseLanguage;
@@ -132,102 +165,66 @@ public class Driver extends Builder<DriverInput, Result> {
   
   private AnalysisDataInterop analysisDataInterop;
   
+  private TransitiveFileRequirements transitiveFileRequirements;
   
-//  private static synchronized Entry<ToplevelDeclarationProvider, Driver> getPendingRun(Set<? extends Path> files) {
-//    return pendingRuns.get(files);
-//  }
-//  
-//  private static synchronized void putPendingRun(Set<? extends Path> files, ToplevelDeclarationProvider declProvider, Driver driver) {
-//    pendingRuns.put(files, new AbstractMap.SimpleImmutableEntry<ToplevelDeclarationProvider, Driver>(declProvider, driver));
-//  }
+  private SugarJPrimitivesLibrary primitives;
   
-  public static synchronized void addProcessingDoneListener(ProcessingListener listener) {
-    processingListener.add(listener);
-  }
+  private TermCache desugaringMemo;
+  private boolean transformationFailed;
+  private boolean desugaringReusable;
+  
+  /*
+   * chained digest of `digestedBodyDecls`, a prefix of `desugaredBodyDecls`
+   */
+  private String bodyDeclsDigest = "";
+  private List<IStrategoTerm> digestedBodyDecls = new ArrayList<IStrategoTerm>();
+  
+  /*
+   * checkpoints of the processing of an edited source file, null otherwise
+   */
+  private Checkpoints checkpoints;
+  
+  private ScratchSpace scratch;
+  
+  private boolean ownsCompilationBatch;
+  
+  /*
+   * grammars of sugar declarations in parse-only runs
+   */
+  private Set<Path> parsedGrammars = new LinkedHashSet<Path>();
   
-  public static synchronized void removeProcessingDoneListener(ProcessingListener listener) {
-    processingListener.remove(listener);
+  /*
+   * generated files are written behind and provided once they are flushed
+   */
+  private final OutputSink outputs;
+  private Set<Path> unprovidedOutputs = new LinkedHashSet<Path>();
+  
+  
+  public static void addProcessingDoneListener(ProcessingListener listener) {
+    CompilerSession.getDefault().addProcessingDoneListener(listener);
   }
   
-//  private static void waitForPending(Set<? extends Path> files) {
-//    int count = 0;
-//    Object lock = new Object();
-//    synchronized (lock) {
-//      while (true) {
-//        synchronized (pendingRuns) {
-//          if (!pendingRuns.containsKey(files))
-//            return;
-//        }
-//        
-//        if (count > PENDING_TIMEOUT)
-//          throw new IllegalStateException("pending result timed out for " + files);
-//        
-//        count += 100;
-//        try {
-//          lock.wait(100);
-//        } catch (InterruptedException e) {
-//        }
-//      }
-//    }
-//  }
-
-//  public static Result run(DriverInput params) throws IOException, TokenExpectedException, ParseException, InvalidParseTableException, SGLRException, InterruptedException {
-//    Driver driver = new Driver();
-//    params.declProvider.setDriver(driver);
-//    return run(driver, params);
-//  }
-//  
-//  private static Result run(Driver driver, DriverInput params) throws IOException, TokenExpectedException, ParseException, InvalidParseTableException, SGLRException, InterruptedException {
-//    Entry<ToplevelDeclarationProvider, Driver> pending = null;
-//    
-//    pending = getPendingRun(params.sourceFilePaths);
-//    if (pending != null && !pending.getKey().equals(params.declProvider) && pending.getValue().params.env.getMode() == driver.params.env.getMode()) {
-//      log.log("interrupting " + params.sourceFilePaths, Log.CORE);
-//      pending.getValue().interrupt();
-//    }
-//
-//    if (pending == null)
-//      putPendingRun(params.sourceFilePaths, params.declProvider, driver);
-//    else {
-//      waitForPending(params.sourceFilePaths);
-//      return run(driver, params);
-//    }
-//    
-//    try {
-//      ProcessingListener.notifyProcessingStarts(Driver.class, processingListener, params.sourceFilePaths);
-//    
-//      driver.initDriver(params);
-//      driver.initForSources(params);
-//      driver.process();
-//      
-//      Driver.storeCaches(driver.params.env);
-//    
-//      ProcessingListener.notifyProcessingDone(Driver.class, processingListener, driver.driverResult);
-//      
-//    } catch (InterruptedException e) {
-//      // nothing
-//    } catch (Exception e) {
-//      org.strategoxt.imp.runtime.Environment.logException(e);
-//    } finally {
-//      pendingRuns.remove(params.sourceFilePaths);
-//    }
-//
-//    return driver.driverResult;
-//  }
+  public static void removeProcessingDoneListener(ProcessingListener listener) {
+    CompilerSession.getDefault().removeProcessingDoneListener(listener);
+  }
   
   public Driver(DriverInput input) {
     super(input);
     this.env = input.getOriginalEnvironment().clone();
+    this.session = input.getSession();
+    this.cancellation = new Cancellation(input.monitor, session);
+    this.outputs = new OutputSink(session.getOutputWriter());
   }
   
   @Override
   protected String description() {
-    return "Process SugarLang files " + input.sourceFilePath;
+    return (input.parseOnly ? "Parse" : "Process") + " SugarLang files " + input.sourceFilePath;
   }
 
   @Override
   protected Path persistentPath() {
-    String depPath = FileCommands.dropExtension(input.sourceFilePath.getRelativePath()) + ".dep";
+    // parse-only runs must not pass for complete builds
+    String depPath = FileCommands.dropExtension(input.sourceFilePath.getRelativePath()) + (input.parseOnly ? ".parse.dep" : ".dep");
     return new RelativePath(env.getBin(), depPath);
   }
   
@@ -237,6 +234,8 @@ public class Driver extends Builder<DriverInput, Result> {
   }
   
   private void initDriver() {
+    SugarJContexts.warmUp();
+
     this.baseLanguage = input.baseLang;
     this.baseProcessor = baseLanguage.createNewProcessor();
     
@@ -244,9 +243,16 @@ public class Driver extends Builder<DriverInput, Result> {
       if (env.getCacheDir() != null)
         FileCommands.createDir(env.getCacheDir());
       
-      initializeCaches(env, false);
-      sdfCache = selectCache(sdfCaches, baseLanguage, env);
-      strCache = selectCache(strCaches, baseLanguage, env);
+      Pair<ModuleKeyCache<Path>, ModuleKeyCache<Path>> caches = session.getCaches(baseLanguage, env);
+      if (caches != null) {
+        sdfCache = caches.a;
+        strCache = caches.b;
+      }
+      
+      if (env.isMemoizeDesugarings() && env.getCacheDir() != null)
+        desugaringMemo = new TermCache(env.createCachePath("desugarings"));
+      
+      scratch = new ScratchSpace(env.getTmpDir());
     } catch (IOException e) {
       throw new RuntimeException("error while initializing driver", e);
     }
@@ -259,7 +265,7 @@ public class Driver extends Builder<DriverInput, Result> {
     HybridInterpreter interp = baseProcessor.getInterpreter();
     
     analysisDataInterop = new AnalysisDataInterop();
-    analysisDataInterop.createInteropRegisterer().register(interp.getContext(), interp.getCompiledContext());
+    analysisDataInterop.createInteropRegisterer().registerLazy(interp.getContext(), interp.getCompiledContext(), AnalysisDataInterop.class.getClassLoader());
     
     currentGrammarSDF = baseLanguage.getInitGrammar();
     currentGrammarModule = baseLanguage.getInitGrammarModuleName();
@@ -275,14 +281,16 @@ public class Driver extends Builder<DriverInput, Result> {
     availableSTRImports = new ArrayList<String>();
     availableSTRImports.add(baseLanguage.getInitTransModuleName());
   
-    sdf = new SDFCommands(StdLib.sdfParser, sdfCache, env);
-    str = new STRCommands(StdLib.strategoParser, strCache, env);
+    sdf = new SDFCommands(StdLib.sdfParser, sdfCache, env, scratch, cancellation);
+    str = new STRCommands(StdLib.strategoParser, strCache, env, scratch, cancellation);
   }
 
   private void initForSources() throws IOException, TokenExpectedException, SGLRException, InterruptedException {
     if (input.injectedRequirements != null)
-      for (BuildRequest<?, ?, ?, ?> req : input.injectedRequirements)
+      for (BuildRequest<?, ?, ?, ?> req : input.injectedRequirements) {
+        flushOutputs();
         requireBuild(req);
+      }
     
     Stamp sourceFileStamp = input.editedSourceStamp;
     if (sourceFileStamp == null)
@@ -296,14 +304,21 @@ public class Driver extends Builder<DriverInput, Result> {
     imp = new ImportCommands(baseProcessor, env, this, str);
 
     baseProcessor.init(Collections.singleton(input.sourceFilePath), env);
-    baseProcessor.getInterpreter().addOperatorRegistry(new SugarJPrimitivesLibrary(this, imp));
+    primitives = new SugarJPrimitivesLibrary(this, imp);
+    baseProcessor.getInterpreter().addOperatorRegistry(primitives);
     
     if ("model".equals(FileCommands.getExtension(input.sourceFilePath))) {
-      IStrategoTerm term = ATermCommands.atermFromFile(input.sourceFilePath.getAbsolutePath());
+      IStrategoTerm term = ModelCache.read(input.sourceFilePath, sourceFileStamp);
       declProvider = new TermToplevelDeclarationProvider(term, input.sourceFilePath, env);
     }
     else {
-      declProvider = new SourceToplevelDeclarationProvider(source, input.sourceFilePath);
+      SourceToplevelDeclarationProvider sourceDeclProvider = new SourceToplevelDeclarationProvider(source, input.sourceFilePath);
+      // cached parses lack the token-to-tree links editors need
+      if (env.isCacheParses() && input.editedSource == null && env.getCacheDir() != null)
+        sourceDeclProvider.setParseCache(new TermCache(env.createCachePath("parses")));
+      if (input.editedSource != null && !input.parseOnly)
+        checkpoints = Checkpoints.begin(session, checkpointKey(), source);
+      declProvider = sourceDeclProvider;
     }
     declProvider.setDriver(this);
   }
@@ -320,35 +335,78 @@ public class Driver extends Builder<DriverInput, Result> {
    */
   protected Result build() throws IOException, TokenExpectedException, ParseException, InvalidParseTableException, SGLRException, InterruptedException {
     this.driverResult = new Result();
+    if (input.ticket != null)
+      input.ticket.started(this);
     initDriver();
-    initForSources();
+    if (env.isBatchCompilation() && input.compilationBatch == null && !input.parseOnly) {
+      input.compilationBatch = new CompilationBatch(driverResult);
+      ownsCompilationBatch = true;
+    }
+    
+    boolean initialized = false;
+    try {
+      initForSources();
+      initialized = true;
+    } finally {
+      if (!initialized) {
+        scratch.close();
+        if (ownsCompilationBatch)
+          input.compilationBatch = null;
+      }
+    }
     
     List<FromTo> originalRenamings = new LinkedList<FromTo>(input.renamings);
     
     setState(BuildUnit.State.IN_PROGESS); 
     boolean success = false;
     try {
+      if (input.parseOnly) {
+        parseToplevelDeclarations();
+        
+        driverResult.setSugaredSyntaxTree(makeSugaredSyntaxTree());
+        // uncached parse tables live in the scratch space, but results are used after this driver finished
+        if (currentGrammarTBL != null)
+          driverResult.registerParseTable(scratch.keep(currentGrammarTBL));
+        
+        success = true;
+        return driverResult;
+      }
+      
       boolean done = false;
       while (!done) {
         stepped();
         
+        int stepStart = declOffset();
+        
         // PARSE the next top-level declaration
         lastSugaredToplevelDecl = declProvider.getNextToplevelDecl(true, false);
         
         stepped();
         
-        // ANALYZE the parsed top-level declaration
-        IStrategoTerm analyzed = currentAnalyze(lastSugaredToplevelDecl);
+        int stepEnd = declOffset();
+        Checkpoints.State state = checkpoints == null ? null : checkpointState();
+        IStrategoTerm renamed = checkpoints == null ? null : checkpoints.resume(stepStart, stepEnd, state);
         
-        stepped();
-        
-        // DESUGAR the analyzed top-level declaration
-        IStrategoTerm desugared = currentDesugar(analyzed);
-        
-        stepped();
-        
-        // RENAME the desugared top-level declaration
-        IStrategoTerm renamed = currentRename(desugared);
+        if (renamed != null) {
+          StructuredLog.log(Log.CACHING, "resume from checkpoint", "offset", stepEnd);
+          checkpoints.record(stepStart, stepEnd, state, renamed, true);
+        }
+        else {
+          int errors = driverResult.getCollectedErrors().size();
+          
+          // ANALYZE and DESUGAR the parsed top-level declaration
+          IStrategoTerm desugared = analyzeAndDesugar(lastSugaredToplevelDecl);
+          
+          stepped();
+          
+          // RENAME the desugared top-level declaration
+          renamed = currentRename(desugared);
+          
+          if (checkpoints != null) {
+            boolean reusable = desugaringReusable && errors == driverResult.getCollectedErrors().size() && !isExportDecl(renamed);
+            checkpoints.record(stepStart, stepEnd, state, renamed, reusable);
+          }
+        }
         
         stepped();
         
@@ -382,38 +440,66 @@ public class Driver extends Builder<DriverInput, Result> {
       driverResult.setSugaredSyntaxTree(makeSugaredSyntaxTree());
       driverResult.setDesugaredSyntaxTree(makeDesugaredSyntaxTree());
       
+      // uncached parse tables and assimilators live in the scratch space, but results are used after this driver finished
       if (currentGrammarTBL != null)
-        driverResult.registerParseTable(currentGrammarTBL);
+        driverResult.registerParseTable(scratch.keep(currentGrammarTBL));
       
       if (currentTransProg != null)
-        driverResult.registerEditorDesugarings(currentTransProg);
+        driverResult.registerEditorDesugarings(scratch.keep(currentTransProg));
       else
         driverResult.registerEditorDesugarings(StdLib.failureTrans);
 
+      flushOutputs();
       success = true;
       return driverResult;
     } 
     finally {
       input.renamings.clear();
       input.renamings.addAll(originalRenamings);
+      
+      // checkpoints of a failed or interrupted run may be incomplete
+      if (checkpoints != null && success)
+        checkpoints.commit(checkpointKey());
+      
+      if (!success)
+        try {
+          flushOutputs();
+        } catch (IOException e) {
+          log.logErr("could not write generated files: " + e.getMessage(), Log.CORE);
+        }
 
-      if (!interrupt) {
-        setState(success ? BuildUnit.State.SUCCESS : BuildUnit.State.FAILURE);
-      } else {
-        setState(BuildUnit.State.SUCCESS);
+      // an interrupted build is unfinished and must not pass for successful
+      setState(success ? BuildUnit.State.SUCCESS : BuildUnit.State.FAILURE);
+      if (interrupt && !success)
         driverResult.setSugaredSyntaxTree(null);
-      }
       
-      Driver.storeCaches(env);
+      session.storeCaches(env);
+      scratch.close();
+      if (ownsCompilationBatch)
+        input.compilationBatch = null;
+      SugarJContexts.logStatistics();
+      if (primitives != null)
+        log.log(primitives.getStatistics(), Log.CACHING);
+      if (desugaringMemo != null)
+        log.log("memoized desugarings reused: " + desugaringMemo.getHits() + ", computed: " + desugaringMemo.getMisses(), Log.CACHING);
       getBuildUnit().setBuildResult(driverResult);
-      ProcessingListener.notifyProcessingDone(Driver.class, processingListener, getBuildUnit());
+      session.notifyProcessingDone(getBuildUnit());
     }
   }
 
   private void compileGeneratedFiles() throws IOException {
+    CompilationBatch batch = input.compilationBatch;
+    if (batch != null && !ownsCompilationBatch) {
+      deferGeneratedFiles(batch);
+      return;
+    }
+    
     boolean good = false;
     log.beginTask("compilation", "COMPILE generated " + baseProcessor.getLanguage().getLanguageName() + " files", Log.CORE);
     try {
+      flushOutputs();
+      if (batch != null)
+        log.log("compile generated files of " + batch.getDeferredModules().size() + " deferred modules", Log.CORE);
       try {
         Set<Path> generatedFiles = 
           baseProcessor.compile(
@@ -429,15 +515,35 @@ public class Driver extends Builder<DriverInput, Result> {
       } catch (ClassNotFoundException e) {
         setErrorMessage("Could not resolve imported class " + e.getMessage());
       } catch (SourceCodeException e) {
-        for (Pair<SourceLocation, String> err : e.getErrors())
-          setErrorMessage(err.b + " lines " + err.a.lineStart + "-" + err.a.lineEnd
-                                + " columns " + err.a.columnStart + "-" + err.a.columnEnd);
+        for (Pair<SourceLocation, String> err : e.getErrors()) {
+          String msg = err.b + " lines " + err.a.lineStart + "-" + err.a.lineEnd
+                             + " columns " + err.a.columnStart + "-" + err.a.columnEnd;
+          Result deferred = batch == null ? null : batch.getDeferredResult(err.a.file);
+          if (deferred != null) {
+            deferred.logError(msg);
+            msg = err.a.file + ": " + msg;
+          }
+          setErrorMessage(msg);
+        }
       }
       good = true;
     } finally {
       log.endTask(good);
     }
   }
+  
+  /**
+   * Writes the generated source file and leaves its compilation to the driver owning `batch`.
+   */
+  private void deferGeneratedFiles(CompilationBatch batch) throws IOException {
+    Path generatedSourceFile = baseProcessor.getGeneratedSourceFile();
+    generateFile(generatedSourceFile, baseProcessor.getGeneratedSource());
+    flushOutputs();
+    
+    String modulePath = FileCommands.dropExtension(input.sourceFilePath.getRelativePath());
+    batch.defer(driverResult, modulePath, Collections.singleton(input.sourceFilePath), Collections.singleton(generatedSourceFile));
+    log.log("deferred compilation of " + generatedSourceFile, Log.CORE);
+  }
 
   private void processToplevelDeclaration(IStrategoTerm toplevelDecl) throws IOException, TokenExpectedException, ParseException, InvalidParseTableException, SGLRException {
     try {
@@ -513,7 +619,7 @@ public class Driver extends Builder<DriverInput, Result> {
     RelativePath editorServicesFile = env.createOutPath(baseProcessor.getRelativeNamespaceSep() + extName + ".serv");
     List<IStrategoTerm> editorServices = ATermCommands.getList(services);
     
-    log.log("writing editor services to " + editorServicesFile, Log.DETAIL);
+    StructuredLog.log(Log.DETAIL, "writing editor services", "file", editorServicesFile);
     
     StringBuffer buf = new StringBuffer();
     
@@ -528,8 +634,93 @@ public class Driver extends Builder<DriverInput, Result> {
     generateFile(editorServicesFile, buf.toString());
   }
   
+  /**
+   * Parses all toplevel declarations without transforming them. Imports and
+   * sugar declarations extend the grammar for subsequent declarations.
+   */
+  private void parseToplevelDeclarations() throws IOException, ParseException, InvalidParseTableException, SGLRException, InterruptedException {
+    boolean done = false;
+    while (!done) {
+      stepped();
+      
+      lastSugaredToplevelDecl = declProvider.getNextToplevelDecl(true, false);
+      sugaredBodyDecls.add(lastSugaredToplevelDecl);
+      
+      stepped();
+      
+      if (baseLanguage.isImportDecl(lastSugaredToplevelDecl) && !baseLanguage.isTransformationImport(lastSugaredToplevelDecl))
+        parseImportDec(lastSugaredToplevelDecl);
+      else if (baseLanguage.isExtensionDecl(lastSugaredToplevelDecl))
+        parseExtensionDec(lastSugaredToplevelDecl);
+      
+      done = !declProvider.hasNextToplevelDecl();
+    }
+  }
+  
+  /**
+   * Adds the grammar of an imported module to the current grammar. Parse-only
+   * runs do not build imported modules but use their existing grammars.
+   */
+  private void parseImportDec(IStrategoTerm toplevelDecl) {
+    String modulePath = baseProcessor.getModulePathOfImport(toplevelDecl);
+    if (availableSDFImports.contains(modulePath))
+      return;
+    
+    try {
+      if (ModuleSystemCommands.importSdf(modulePath, env, this) != null) {
+        availableSDFImports.add(modulePath);
+        buildCompoundSdfModule();
+      }
+    } catch (IOException e) {
+      setErrorMessage(toplevelDecl, "Could not import grammar of " + modulePath + ": " + e.getMessage());
+    }
+  }
+  
+  /**
+   * Adds the grammar of a sugar declaration to the current grammar. The
+   * grammar is written outside the output directory under a separate module
+   * name, such that it does not interfere with complete builds.
+   */
+  private void parseExtensionDec(IStrategoTerm toplevelDecl) throws IOException {
+    String extName = baseProcessor.getExtensionName(toplevelDecl);
+    String moduleName = "parsed/" + getFullRenamedDeclarationName(extName);
+    
+    try {
+      ExtensionExtraction extraction = ExtensionExtraction.extract(baseProcessor.getExtensionBody(toplevelDecl));
+      IStrategoTerm sdfExtract = fixSDF(extraction.sdf, baseProcessor.getInterpreter());
+      
+      String sdfExtensionHead =
+        "module " + moduleName + "\n" 
+        + " imports " + StringCommands.printListSeparated(availableSDFImports, " ") + "\n"
+        + "exports " + "\n"
+        + "  (/)" + "\n";
+      String sdfSource = sdf.makePermissiveSdf(sdfExtensionHead + SDFCommands.prettyPrintSDF(sdfExtract, baseProcessor.getInterpreter()));
+      
+      RelativePath sdfExtension = new RelativePath(parsedGrammarsDir(), moduleName + ".sdf");
+      sdfExtension.getFile().getParentFile().mkdirs();
+      GeneratedFiles.write(sdfExtension, sdfSource);
+      parsedGrammars.add(sdfExtension);
+      
+      availableSDFImports.add(moduleName);
+      buildCompoundSdfModule();
+    } catch (PrettyPrintError e) {
+      setErrorMessage(toplevelDecl, e.getMsg());
+    }
+  }
+  
+  /**
+   * @return the directory of the grammars of sugar declarations in parse-only runs.
+   *   Private to this driver and deleted together with its scratch space. Module keys
+   *   name these grammars relative to the directory, such that the parse tables
+   *   composed from them are still found in the cache by later runs.
+   */
+  private Path parsedGrammarsDir() {
+    File dir = new File(scratch.getDirectory().getFile(), "grammars");
+    return new AbsolutePath(dir.getAbsolutePath());
+  }
+  
   private void processPlainDec(IStrategoTerm toplevelDecl) throws IOException {
-    log.beginTask("processing", "PROCESS plain declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS plain declaration.");
     try {
       if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
         sugaredBodyDecls.add(lastSugaredToplevelDecl);
@@ -550,8 +741,7 @@ public class Driver extends Builder<DriverInput, Result> {
       String fullExtName = getFullRenamedDeclarationName(extName);
       fullExtName = fullExtName + (extension == null ? "" : ("." + extension));
       
-      log.log("The name is '" + extName + "'.", Log.DETAIL);
-      log.log("The full name is '" + fullExtName + "'.", Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "plain declaration", "name", extName, "fullName", fullExtName);
 
       if (dependsOnModel)
         return;
@@ -562,25 +752,59 @@ public class Driver extends Builder<DriverInput, Result> {
       RelativePath plainFile = env.createOutPath(baseProcessor.getRelativeNamespaceSep() + extName + ext);
       FileCommands.createFile(plainFile);
 
-      log.log("writing plain content to " + plainFile, Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "writing plain content", "file", plainFile);
       generateFile(plainFile, plainContent);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
+    }
+  }
+  
+  
+  /**
+   * @return the parse table of the current grammar, which is only
+   *   composed again when the grammar changes.
+   */
+  public Path currentParseTable() throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
+    TransitiveFileRequirements requirements = transitiveFileRequirements();
+    if (currentGrammarTBL != null && currentGrammarSDF.equals(currentGrammarTBLSource) && requirements.version() == currentGrammarTBLVersion)
+      return currentGrammarTBL;
+    
+    // pack-sdf reads generated grammars from disk
+    flushOutputs();
+    long version = requirements.version();
+    Set<Path> grammarFiles = requirements.paths();
+    Path grammarDir = null;
+    if (!parsedGrammars.isEmpty()) {
+      grammarFiles = new LinkedHashSet<Path>(grammarFiles);
+      grammarFiles.addAll(parsedGrammars);
+      grammarDir = parsedGrammarsDir();
     }
+    Pair<Path, String> compiled = sdf.compile(currentGrammarSDF, currentGrammarModule, grammarFiles, grammarDir, baseLanguage.getPackagedGrammars(), baseLanguage.getPluginDirectory());
+    currentGrammarTBL = compiled.a;
+    currentGrammarDigest = compiled.b;
+    currentGrammarTBLSource = currentGrammarSDF;
+    currentGrammarTBLVersion = version;
+    return currentGrammarTBL;
   }
   
+  /**
+   * @return a digest that identifies the current parse table, see {@link #currentParseTable()}.
+   */
+  public String currentParseTableDigest() throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
+    currentParseTable();
+    return currentGrammarDigest;
+  }
   
   public Pair<IStrategoTerm, Integer> currentParse(String remainingInput, ITreeBuilder treeBuilder, boolean recovery) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
     
-    currentGrammarTBL = sdf.compile(currentGrammarSDF, currentGrammarModule, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), baseLanguage.getPackagedGrammars(), baseLanguage.getPluginDirectory());
-
-    ParseTable table = ATermCommands.parseTableManager.loadFromFile(currentGrammarTBL.getAbsolutePath());
+    ParseTable table = ATermCommands.parseTableManager.loadFromFile(currentParseTable().getAbsolutePath());
     
     Pair<SGLR, Pair<IStrategoTerm, Integer>> parseResult = null;
 
     // read next toplevel decl and stop if that fails
     try {
       parseResult = SDFCommands.parseImplode(
+          session,
           table,
           remainingInput,
           input.sourceFilePath.getRelativePath(),
@@ -605,22 +829,175 @@ public class Driver extends Builder<DriverInput, Result> {
     return parseResult.b;
   }
 
+  /**
+   * Analyzes and desugars a top-level declaration, reusing the memoized
+   * result of an earlier build if the memo is enabled.
+   * 
+   * Results are reusable only if neither transformation failed nor
+   * called a SugarJ primitive that depends on the state of the driver.
+   * Only reusable results are memoized.
+   */
+  private IStrategoTerm analyzeAndDesugar(IStrategoTerm term) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException, InterruptedException {
+    String key = desugaringMemoKey(term);
+    if (key != null) {
+      IStrategoTerm desugared = desugaringMemo.get(key);
+      if (desugared != null) {
+        log.log("reuse memoized desugaring", Log.CACHING);
+        desugaringReusable = true;
+        return desugared;
+      }
+    }
+    if (primitives != null)
+      primitives.resetStatefulPrimitiveCalled();
+    transformationFailed = false;
+    
+    IStrategoTerm analyzed = currentAnalyze(term);
+    
+    stepped();
+    
+    IStrategoTerm desugared = currentDesugar(analyzed);
+    
+    desugaringReusable = !transformationFailed && primitives != null && !primitives.resetStatefulPrimitiveCalled();
+    if (key != null && desugaringReusable)
+      desugaringMemo.put(key, desugared);
+    
+    return desugared;
+  }
+  
+  private int declOffset() {
+    if (declProvider instanceof SourceToplevelDeclarationProvider)
+      return ((SourceToplevelDeclarationProvider) declProvider).getOffset();
+    return -1;
+  }
+  
+  private String checkpointKey() {
+    return baseLanguage.getLanguageName() + ":" + input.sourceFilePath.getAbsolutePath();
+  }
+  
+  /**
+   * @return the state that determines the transformation of the next toplevel declaration.
+   */
+  private Checkpoints.State checkpointState() throws IOException {
+    // stamps of generated files are only valid once they are written
+    flushOutputs();
+    Map<Path, Stamp> requirements = transitiveFileRequirements().stamps();
+    // the source file itself is covered by the checkpoints' source digests
+    requirements.remove(input.sourceFilePath);
+    
+    return new Checkpoints.State(availableSDFImports, availableSTRImports, requirements, renamingsKey());
+  }
+  
+  private String renamingsKey() {
+    StringBuilder renamings = new StringBuilder();
+    for (FromTo ren : input.renamings)
+      renamings.append(ren.pkgs).append(':').append(ren.from).append("->").append(ren.to).append(';');
+    return renamings.toString();
+  }
+  
+  /**
+   * @return digest of the declarations processed so far, extended incrementally
+   *   as long as declarations are only appended.
+   */
+  private String bodyDeclsDigest() {
+    int n = digestedBodyDecls.size();
+    if (desugaredBodyDecls.size() < n || !desugaredBodyDecls.subList(0, n).equals(digestedBodyDecls)) {
+      bodyDeclsDigest = "";
+      digestedBodyDecls.clear();
+    }
+    for (int i = digestedBodyDecls.size(); i < desugaredBodyDecls.size(); i++) {
+      IStrategoTerm decl = desugaredBodyDecls.get(i);
+      bodyDeclsDigest = Digests.digest(bodyDeclsDigest + ";" + Digests.digest(decl));
+      digestedBodyDecls.add(decl);
+    }
+    return bodyDeclsDigest;
+  }
+  
+  /**
+   * Exports transform models with the transformation current at processing
+   * time, which is not compiled for steps resumed from a checkpoint.
+   */
+  private boolean isExportDecl(IStrategoTerm decl) {
+    if (baseLanguage.isExportDecl(decl))
+      return true;
+    if (ATermCommands.isList(decl))
+      for (IStrategoTerm term : ATermCommands.getList(decl))
+        if (isExportDecl(term))
+          return true;
+    return false;
+  }
+  
+  /**
+   * @return the memo key of analyzing and desugaring `term` with the current transformation,
+   *   or null if desugarings are not memoized.
+   */
+  private String desugaringMemoKey(IStrategoTerm term) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
+    if (desugaringMemo == null || primitives == null)
+      return null;
+    
+    try {
+      currentTransformation();
+    } catch (StrategoException e) {
+      return null;
+    }
+    
+    return Digests.digest(
+        baseLanguage.getLanguageName() + ";" + baseLanguage.getVersion() + ";" +
+        "analyze-main;internal-main;" + 
+        currentTransDigest + ";" + 
+        Digests.digest(renamingsKey()) + ";" + 
+        bodyDeclsDigest() + ";" + 
+        Digests.digest(term));
+  }
+
+  /**
+   * Compiles the current transformation into `currentTransProg`, but only
+   * when the transformation changed since the last compilation.
+   */
+  private Path currentTransformation() throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
+    TransitiveFileRequirements requirements = transitiveFileRequirements();
+    if (currentTransSTR.equals(currentTransProgSource) && requirements.version() == currentTransProgVersion) {
+      if (currentTransFailure != null)
+        throw currentTransFailure;
+      if (currentTransProg != null)
+        return currentTransProg;
+    }
+    
+    // strj reads generated transformations from disk
+    flushOutputs();
+    long version = requirements.version();
+    currentTransProgSource = null;
+    try {
+      currentTransProg = str.compile(currentTransSTR, requirements.paths(), baseLanguage.getPluginDirectory());
+      currentTransDigest = Digests.digest(currentTransProg);
+      currentTransFailure = null;
+    } catch (StrategoException e) {
+      currentTransFailure = e;
+    }
+    currentTransProgSource = currentTransSTR;
+    currentTransProgVersion = version;
+    
+    if (currentTransFailure != null)
+      throw currentTransFailure;
+    return currentTransProg;
+  }
+
   private IStrategoTerm currentAnalyze(IStrategoTerm term) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
   // assimilate toplevelDec using current transformation
   
-    log.beginTask("analyze", "ANALYZE toplevel declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("analyze", Log.CORE, "ANALYZE toplevel declaration.");
     try {
-      currentTransProg = str.compile(currentTransSTR, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), baseLanguage.getPluginDirectory());
+      currentTransformation();
     
-      return STRCommands.execute("analyze-main", currentTransProg, term, baseProcessor.getInterpreter());
+      return STRCommands.execute("analyze-main", new IStrategoTerm[0], currentTransProg, currentTransDigest, term, baseProcessor.getInterpreter(), cancellation);
     } catch (StrategoException e) {
+      transformationFailed = true;
       String msg = e.getClass().getName() + " " + e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
       
       log.logErr(msg, Log.DETAIL);
       setErrorMessage(msg);
       return term;
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
@@ -628,14 +1005,15 @@ public class Driver extends Builder<DriverInput, Result> {
       InvalidParseTableException, TokenExpectedException, SGLRException {
     // assimilate toplevelDec using current transformation
 
-    log.beginTask("desugaring", "DESUGAR toplevel declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("desugaring", Log.CORE, "DESUGAR toplevel declaration.");
     try {
       String currentModelName = FileCommands.dropExtension(input.sourceFilePath.getRelativePath());
       imp.setCurrentModelName(currentModelName);
-      currentTransProg = str.compile(currentTransSTR, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), baseLanguage.getPluginDirectory());
+      currentTransformation();
 
-      return STRCommands.execute("internal-main", currentTransProg, term, baseProcessor.getInterpreter());
+      return STRCommands.execute("internal-main", new IStrategoTerm[0], currentTransProg, currentTransDigest, term, baseProcessor.getInterpreter(), cancellation);
     } catch (StrategoException e) {
+      transformationFailed = true;
       String msg = e.getClass().getName() + " " + e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
       
       log.logErr(msg, Log.DETAIL);
@@ -643,7 +1021,7 @@ public class Driver extends Builder<DriverInput, Result> {
       return term;
     } finally {
       imp.setCurrentModelName(null);
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
@@ -657,7 +1035,7 @@ public class Driver extends Builder<DriverInput, Result> {
       
       IStrategoTerm map = Renaming.makeRenamingHashtable(input.renamings);
       IStrategoTerm[] targs = new IStrategoTerm[] {map};
-      IStrategoTerm result = STRCommands.execute("apply-renamings", targs, currentTransProg, term, baseProcessor.getInterpreter());
+      IStrategoTerm result = STRCommands.execute("apply-renamings", targs, currentTransProg, currentTransDigest, term, baseProcessor.getInterpreter(), cancellation);
       return result == null ? term : result;
     } catch (StrategoException e) {
       String msg = e.getClass().getName() + " " + e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
@@ -695,12 +1073,146 @@ public class Driver extends Builder<DriverInput, Result> {
       }
     }
     
+    if (env.isParallelImports() && pendingImports.size() > 1)
+      prefetchImports(pendingImports);
+    if (env.isAtomicImportParsing() && pendingImports.size() > 1)
+      transformModelsByTransformation(pendingImports);
+    
     for (IStrategoTerm pendingImport : pendingImports) {
       lastSugaredToplevelDecl = pendingImport;
       processImportDec(pendingImport);
     }
   }
 
+  /**
+   * Concurrently locates the source files of the modules imported by the given
+   * import declarations and loads the models among them, so that the subsequent
+   * sequential import processing finds them resolved. The imported modules are
+   * still built one after the other by the sequential processing, as requirements
+   * of this build.
+   * 
+   * Failures are ignored here, the sequential processing repeats the lookup and reports them.
+   */
+  private void prefetchImports(List<IStrategoTerm> pendingImports) {
+    Map<String, Future<RelativePath>> lookups = new LinkedHashMap<>();
+    
+    log.beginTask("prefetching", "PREFETCH imported modules", Log.IMPORT);
+    try {
+      for (IStrategoTerm pendingImport : pendingImports) {
+        if (baseLanguage.isTransformationImport(pendingImport))
+          continue;
+        
+        final String modulePath;
+        try {
+          modulePath = baseProcessor.getModulePathOfImport(pendingImport);
+        } catch (Exception e) {
+          continue;
+        }
+        if (modulePath.startsWith("org/sugarj") || lookups.containsKey(modulePath))
+          continue;
+        
+        lookups.put(modulePath, session.getImportExecutor().submit(new Callable<RelativePath>() {
+          @Override
+          public RelativePath call() throws IOException {
+            RelativePath importSourceFile = ModuleSystemCommands.locateSourceFileOrModel(modulePath, env.getSourcePath(), baseProcessor, env);
+            if (importSourceFile != null && "model".equals(FileCommands.getExtension(importSourceFile)))
+              readModel(importSourceFile);
+            return importSourceFile;
+          }
+        }));
+      }
+      
+      for (Entry<String, Future<RelativePath>> lookup : lookups.entrySet())
+        try {
+          RelativePath importSourceFile = lookup.getValue().get();
+          // builds of earlier imports may generate models that shadow anything but a source file
+          if (importSourceFile != null && baseLanguage.getSugarFileExtension().equals(FileCommands.getExtension(importSourceFile)))
+            prefetchedSourceFiles.put(lookup.getKey(), importSourceFile);
+        } catch (ExecutionException e) {
+          log.log("prefetching failed: " + e.getCause(), Log.IMPORT);
+        }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (Future<RelativePath> lookup : lookups.values())
+        lookup.cancel(true);
+    } finally {
+      log.endTask();
+    }
+  }
+
+  /**
+   * Runs the model transformations required by the given import declarations
+   * grouped by transformation, so that each transformation program is loaded into
+   * the interpreter once for all models it transforms.
+   * 
+   * Failures are recorded, such that the sequential processing reports them
+   * without requiring the failed transformation again.
+   */
+  private void transformModelsByTransformation(List<IStrategoTerm> pendingImports) {
+    Map<Path, List<BuildRequest<?, ?, ?, ?>>> byTransformation = new LinkedHashMap<>();
+    int count = 0;
+    
+    for (IStrategoTerm pendingImport : pendingImports) {
+      if (!baseLanguage.isTransformationImport(pendingImport))
+        continue;
+      
+      BuildRequest<?, ?, ?, ?> req;
+      try {
+        req = imp.resolveTransformation(baseLanguage.getTransformationApplication(pendingImport));
+      } catch (Exception e) {
+        continue;
+      }
+      if (req == null)
+        continue;
+      
+      Path transformation = ((TransformModelBuilder.Input) req.input).transformationPath;
+      List<BuildRequest<?, ?, ?, ?>> group = byTransformation.get(transformation);
+      if (group == null) {
+        group = new ArrayList<>();
+        byTransformation.put(transformation, group);
+      }
+      group.add(req);
+      count++;
+    }
+    
+    if (count < 2)
+      return;
+    
+    log.beginTask("transforming", "TRANSFORM " + count + " models with " + byTransformation.size() + " transformations", Log.IMPORT);
+    try {
+      for (List<BuildRequest<?, ?, ?, ?>> group : byTransformation.values())
+        for (BuildRequest<?, ?, ?, ?> req : group)
+          try {
+            flushOutputs();
+            requireBuild(req);
+          } catch (Exception e) {
+            // interrupted builds are unfinished rather than failed
+            if (e instanceof InterruptedException || e instanceof InterruptedIOException) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+            TransformModelBuilder.Input input = (TransformModelBuilder.Input) req.input;
+            String msg = e.getMessage() == null ? e.toString() : e.getMessage();
+            failedTransformations.put(transformationKey(input.modelPath, input.transformationPath), msg);
+            log.log("model transformation failed: " + msg, Log.IMPORT);
+          }
+    } finally {
+      log.endTask();
+    }
+  }
+
+  /**
+   * @return the failure of transforming `modelPath` with `transformationPath`
+   *   in this build, see {@link #transformModelsByTransformation(List)}, or null.
+   */
+  public String getTransformationFailure(Path modelPath, Path transformationPath) {
+    return failedTransformations.get(transformationKey(modelPath, transformationPath));
+  }
+  
+  private static String transformationKey(Path modelPath, Path transformationPath) {
+    return modelPath.getAbsolutePath() + "|" + transformationPath.getAbsolutePath();
+  }
+
   private void processImportDec(IStrategoTerm toplevelDecl) {
     
     if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
@@ -708,7 +1220,7 @@ public class Driver extends Builder<DriverInput, Result> {
     if (!desugaredBodyDecls.contains(toplevelDecl))
       desugaredBodyDecls.add(toplevelDecl);
     
-    log.beginTask("processing", "PROCESS import declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS import declaration.");
     try {
       Pair<String, Boolean> importResult = resolveImportDec(toplevelDecl);
       if (importResult == null)
@@ -738,7 +1250,7 @@ public class Driver extends Builder<DriverInput, Result> {
     } catch (Exception e) {
       throw new RuntimeException(e);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
@@ -763,6 +1275,7 @@ public class Driver extends Builder<DriverInput, Result> {
       if (transformationResult == null)
         return null;
       
+      flushOutputs();
       requireBuild(transformationResult.b);
       
       String modulePath = FileCommands.dropExtension(transformationResult.a.getRelativePath());
@@ -800,9 +1313,13 @@ public class Driver extends Builder<DriverInput, Result> {
     if (modulePath.startsWith("org/sugarj"))
       return false;
     
-    RelativePath importSourceFile = ModuleSystemCommands.locateSourceFileOrModel(modulePath, env.getSourcePath(), baseProcessor, env);
-    if (importSourceFile != null)
+    RelativePath importSourceFile = prefetchedSourceFiles.remove(modulePath);
+    if (importSourceFile == null)
+      importSourceFile = ModuleSystemCommands.locateSourceFileOrModel(modulePath, env.getSourcePath(), baseProcessor, env);
+    if (importSourceFile != null) {
+      flushOutputs();
       requireBuild(subcompile(importSourceFile, injectedRequirements));
+    }
 
     // TODO support circular imports again
 
@@ -817,17 +1334,22 @@ public class Driver extends Builder<DriverInput, Result> {
    * @throws InterruptedException
    */
   public DriverBuildRequest subcompile(RelativePath importSourceFile, BuildRequest<?, ?, ?, ?>... injectedRequirments) throws InterruptedException {
+    return subcompile(importSourceFile, input.renamings, injectedRequirments);
+  }
+  
+  private DriverBuildRequest subcompile(RelativePath importSourceFile, List<FromTo> renamings, BuildRequest<?, ?, ?, ?>... injectedRequirments) {
     BuildRequest<?, ?, ?, ?>[] injected = ArrayUtils.arrayConcat(injectedRequirments, input.injectedRequirements);
     try {
+      DriverInput subinput;
       if ("model".equals(FileCommands.getExtension(importSourceFile))) {
-        IStrategoTerm term = ATermCommands.atermFromFile(importSourceFile.getAbsolutePath());
-        DriverInput subinput = new DriverInput(input.getOriginalEnvironment(), baseLanguage, importSourceFile, term, null, null, input.renamings, input.monitor, injected);
-        return new DriverBuildRequest(subinput);
-      }
-      else {
-        DriverInput subinput = new DriverInput(input.getOriginalEnvironment(), baseLanguage, importSourceFile, null, null, input.renamings, input.monitor, injected);
-        return new DriverBuildRequest(subinput);
+        IStrategoTerm term = readModel(importSourceFile);
+        subinput = new DriverInput(input.getOriginalEnvironment(), baseLanguage, importSourceFile, term, null, null, renamings, input.monitor, injected);
       }
+      else
+        subinput = new DriverInput(input.getOriginalEnvironment(), baseLanguage, importSourceFile, null, null, renamings, input.monitor, injected);
+      subinput.compilationBatch = input.compilationBatch;
+      subinput.setSession(session);
+      return new DriverBuildRequest(subinput);
     } catch (IOException e) {
       setErrorMessage("Problems while compiling " + importSourceFile + ": " + e.getMessage());
     } catch (RequiredBuilderFailed e) {
@@ -840,7 +1362,8 @@ public class Driver extends Builder<DriverInput, Result> {
     boolean success = false;
     
     Path clazz = ModuleSystemCommands.importBinFile(modulePath, env, baseProcessor, this);
-    if (clazz != null || baseProcessor.isModuleExternallyResolvable(modulePath)) {
+    boolean deferred = input.compilationBatch != null && input.compilationBatch.isDeferred(modulePath);
+    if (clazz != null || deferred || baseProcessor.isModuleExternallyResolvable(modulePath)) {
       success = true;
       baseProcessor.processModuleImport(importTerm);
     }
@@ -901,17 +1424,18 @@ public class Driver extends Builder<DriverInput, Result> {
     String exportModuleName = baseProcessor.getRelativeNamespaceSep() + baseLanguage.getExportName(toplevelDecl);
     RelativePath thisModelPath = env.createOutPath(exportModuleName + ".model");
 
-    IStrategoTerm importModel = ATermCommands.atermFromFile(importModelPath.getAbsolutePath());
+    IStrategoTerm importModel = readModel(importModelPath);
     FromTo renaming = new FromTo(importModelPath, thisModelPath);
     IStrategoTerm thisModel = imp.renameModel(importModel, renaming, currentTransProg, toplevelDecl, importModelPath.getAbsolutePath());
-    ATermCommands.atermToFile(thisModel, thisModelPath);
-    provide(thisModelPath);
+    generateFile(thisModelPath, ATermCommands.atermToString(thisModel));
+    flushOutputs();
+    provide(ModelCache.written(thisModel, thisModelPath, env.getStamper().stampOf(thisModelPath)));
 
     subcompile(thisModelPath, new DriverBuildRequest(input));
   }
 
   private List<String> processLanguageDec(IStrategoTerm toplevelDecl) throws IOException {
-    log.beginTask("processing", "PROCESS " + baseProcessor.getLanguage().getLanguageName() + " declaration: " + ((toplevelDecl instanceof IStrategoAppl) ? ((IStrategoAppl) toplevelDecl).getName() : toplevelDecl.toString(0)), Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS declaration", "language", baseProcessor.getLanguage().getLanguageName(), "decl", toplevelDecl);
     try {
       
       if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
@@ -924,12 +1448,12 @@ public class Driver extends Builder<DriverInput, Result> {
       
       return baseProcessor.processBaseDecl(toplevelDecl);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
   private void processExtensionDec(IStrategoTerm toplevelDecl) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
-    log.beginTask("processing", "PROCESS sugar declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS sugar declaration.");
     try {
       if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
         sugaredBodyDecls.add(lastSugaredToplevelDecl);
@@ -940,8 +1464,7 @@ public class Driver extends Builder<DriverInput, Result> {
       String fullExtName = getFullRenamedDeclarationName(extName);
       checkModuleName(extName, toplevelDecl);
 
-      log.log("The name of the sugar is '" + extName + "'.", Log.DETAIL);
-      log.log("The full name of the sugar is '" + fullExtName + "'.", Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "sugar declaration", "name", extName, "fullName", fullExtName);
       
       if (dependsOnModel)
         return;
@@ -956,9 +1479,10 @@ public class Driver extends Builder<DriverInput, Result> {
       
       IStrategoTerm extensionBody = baseProcessor.getExtensionBody(toplevelDecl);
 
-      IStrategoTerm sdfExtract = fixSDF(extractSDF(extensionBody), baseProcessor.getInterpreter());
-      IStrategoTerm strExtract = extractSTR(extensionBody);
-      IStrategoTerm editorExtract = extractEditor(extensionBody);
+      ExtensionExtraction extraction = ExtensionExtraction.extract(extensionBody);
+      IStrategoTerm sdfExtract = fixSDF(extraction.sdf, baseProcessor.getInterpreter());
+      IStrategoTerm strExtract = extraction.str;
+      IStrategoTerm editorExtract = extraction.editor;
       
       String sdfExtensionHead =
         "module " + fullExtName + "\n" 
@@ -968,21 +1492,21 @@ public class Driver extends Builder<DriverInput, Result> {
 
       String sdfExtensionContent = SDFCommands.prettyPrintSDF(sdfExtract, baseProcessor.getInterpreter());
 
-      String sdfSource = SDFCommands.makePermissiveSdf(sdfExtensionHead + sdfExtensionContent);
+      String sdfSource = sdf.makePermissiveSdf(sdfExtensionHead + sdfExtensionContent);
       generateFile(sdfExtension, sdfSource);
       availableSDFImports.add(fullExtName);
       
       if (Exec.FULL_COMMAND_LINE)
-        log.log("Wrote SDF file to '" + sdfExtension.getAbsolutePath() + "'.", Log.DETAIL);
+        StructuredLog.log(Log.DETAIL, "wrote SDF file", "file", sdfExtension);
       
-      String strExtensionTerm = "Module(" + "\"" + fullExtName+ "\"" + ", " + strExtract + ")" + "\n";
+      IStrategoTerm strExtensionTerm = STRCommands.makeModule(fullExtName, strExtract);
 //      try {
 //        strExtensionTerm = STRCommands.assimilate("strip-annos", currentTransProg, strExtensionTerm, langLib.getInterpreter());
 //      } catch (Exception e) {
 //        e.printStackTrace();
 //      }
 //      String strExtensionContent = SDFCommands.prettyPrintSTR(strExtensionTerm, langLib.getInterpreter());
-      String strExtensionContent = SDFCommands.prettyPrintSTR(ATermCommands.atermFromString(strExtensionTerm), baseProcessor.getInterpreter());
+      String strExtensionContent = SDFCommands.prettyPrintSTR(strExtensionTerm, baseProcessor.getInterpreter());
       
       int index = strExtensionContent.indexOf('\n');
       if (index >= 0)
@@ -998,32 +1522,32 @@ public class Driver extends Builder<DriverInput, Result> {
       availableSTRImports.add(fullExtName);
       
       if (Exec.FULL_COMMAND_LINE)
-        log.log("Wrote Stratego file to '" + strExtension.getAbsolutePath() + "'.", Log.DETAIL);
+        StructuredLog.log(Log.DETAIL, "wrote Stratego file", "file", strExtension);
       
       processEditorServices(extName, editorExtract);
       
       /*
        * adapt current grammar
        */
-      if (FileCommands.exists(sdfExtension)) {
+      if (outputExists(sdfExtension)) {
         buildCompoundSdfModule();
       }
 
       /*
        * adapt current transformation
        */
-      if (FileCommands.exists(strExtension))
+      if (outputExists(strExtension))
         buildCompoundStrModule();
 
     } catch (PrettyPrintError e) {
       setErrorMessage(e.getMsg());
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
   private void processTransformationDec(IStrategoTerm toplevelDecl) throws IOException {
-    log.beginTask("processing", "PROCESS transformation declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS transformation declaration.");
     try {
       if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
         sugaredBodyDecls.add(lastSugaredToplevelDecl);
@@ -1039,8 +1563,7 @@ public class Driver extends Builder<DriverInput, Result> {
       if (isApplication(transBody, "TransformationDef")) 
         transBody = ATermCommands.factory.makeListCons(ATermCommands.makeAppl("Rules", "Rules", 1, transBody.getSubterm(0)), (IStrategoList) transBody.getSubterm(1));
       
-      log.log("The name of the transformation is '" + extName + "'.", Log.DETAIL);
-      log.log("The full name of the transformation is '" + fullExtName + "'.", Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "transformation declaration", "name", extName, "fullName", fullExtName);
       
       if (dependsOnModel)
         return;
@@ -1049,8 +1572,8 @@ public class Driver extends Builder<DriverInput, Result> {
       IStrategoTerm renamedTransBody = STRCommands.renameRules(transBody, "main", qualifiedMain);
       
       String strImports = " imports " + StringCommands.printListSeparated(availableSTRImports, " ") + "\n";
-      String strExtensionTerm = "Module(" + "\"" + fullExtName+ "\"" + ", " + renamedTransBody + ")" + "\n";
-      String strExtensionContent = SDFCommands.prettyPrintSTR(ATermCommands.atermFromString(strExtensionTerm), baseProcessor.getInterpreter());
+      IStrategoTerm strExtensionTerm = STRCommands.makeModule(fullExtName, renamedTransBody);
+      String strExtensionContent = SDFCommands.prettyPrintSTR(strExtensionTerm, baseProcessor.getInterpreter());
       
       int index = strExtensionContent.indexOf('\n');
       if (index >= 0)
@@ -1064,16 +1587,16 @@ public class Driver extends Builder<DriverInput, Result> {
       generateFile(strExtension, strExtensionContent);
       availableSTRImports.add(fullExtName);
       
-      log.log("Wrote Stratego file to '" + strExtension.getAbsolutePath() + "'.", Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "wrote Stratego file", "file", strExtension);
       
       /*
        * adapt current transformation
        */
-      if (FileCommands.exists(strExtension))
+      if (outputExists(strExtension))
         buildCompoundStrModule();
 
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
@@ -1088,7 +1611,7 @@ public class Driver extends Builder<DriverInput, Result> {
   }
   
   private void processModelDec(IStrategoTerm toplevelDecl) throws IOException {
-    log.beginTask("processing", "PROCESS model declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("processing", Log.CORE, "PROCESS model declaration.");
     try {
       if (!sugaredBodyDecls.contains(lastSugaredToplevelDecl))
         sugaredBodyDecls.add(lastSugaredToplevelDecl);
@@ -1099,15 +1622,15 @@ public class Driver extends Builder<DriverInput, Result> {
 //      String fullModelName = getFullRenamedDeclarationName(modelName);
       checkModuleName(modelName, toplevelDecl);
   
-      log.log("The name of the model is '" + modelName + "'.", Log.DETAIL);
+      StructuredLog.log(Log.DETAIL, "model declaration", "name", modelName);
 //      checkToplevelDeclarationName(modelName.replace("-", "$"), "model", toplevelDecl);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
   private void generateModel() throws IOException {
-    log.beginTask("Generate model.", Log.DETAIL);
+    boolean task = StructuredLog.beginTask("Generate model.", Log.DETAIL, "Generate model.");
     try {
       String moduleName = FileCommands.dropExtension(input.sourceFilePath.getRelativePath());
       RelativePath modelOutFile = env.createOutPath(moduleName + ".model");
@@ -1115,17 +1638,19 @@ public class Driver extends Builder<DriverInput, Result> {
       IStrategoTerm modelTerm = makeDesugaredSyntaxTree();
       String string = ATermCommands.atermToString(modelTerm);
       generateFile(modelOutFile, string);
+      flushOutputs();
+      provide(ModelCache.written(modelTerm, modelOutFile, env.getStamper().stampOf(modelOutFile)));
       
       if (input.sourceFilePath.equals(modelOutFile))
         provide(modelOutFile);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
   private void buildCompoundSdfModule() throws IOException {
-    FileCommands.deleteTempFiles(currentGrammarSDF);
-    currentGrammarSDF = FileCommands.newTempFile("sdf");
+    scratch.release(currentGrammarSDF);
+    currentGrammarSDF = scratch.newFile("sdf");
     currentGrammarModule = FileCommands.fileName(currentGrammarSDF);
     StringBuilder builder = new StringBuilder();
     builder.append("module ").append(currentGrammarModule).append("\n");
@@ -1134,11 +1659,12 @@ public class Driver extends Builder<DriverInput, Result> {
       builder.append(m).append(" ");
     
     FileCommands.writeToFile(currentGrammarSDF, builder.toString());
+    BinaryTerms.writeSidecar(SDFCommands.makeCompoundModule(currentGrammarModule, availableSDFImports), currentGrammarSDF);
   }
   
   private void buildCompoundStrModule() throws IOException {
-    FileCommands.deleteTempFiles(currentTransSTR);
-    currentTransSTR = FileCommands.newTempFile("str");
+    scratch.release(currentTransSTR);
+    currentTransSTR = scratch.newFile("str");
     currentTransModule = FileCommands.fileName(currentTransSTR);
     StringBuilder builder = new StringBuilder();
     builder.append("module ").append(currentTransModule).append("\n");
@@ -1147,13 +1673,14 @@ public class Driver extends Builder<DriverInput, Result> {
       builder.append(m).append(" ");
     
     FileCommands.writeToFile(currentTransSTR, builder.toString());
+    BinaryTerms.writeSidecar(STRCommands.makeCompoundModule(currentTransModule, availableSTRImports), currentTransSTR);
   }
 
   private void checkCurrentGrammar() throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
     log.beginTask("checking grammar", "CHECK current grammar", Log.CORE);
     
     try {
-      sdf.compile(currentGrammarSDF, currentGrammarModule, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), baseLanguage.getPackagedGrammars(), baseLanguage.getPluginDirectory());
+      currentParseTable();
     } finally {
       log.endTask();
     }
@@ -1163,7 +1690,7 @@ public class Driver extends Builder<DriverInput, Result> {
     log.beginTask("checking transformation", "CHECK current transformation", Log.CORE);
     
     try {
-      currentTransProg = str.compile(currentTransSTR, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), baseLanguage.getPluginDirectory());
+      currentTransformation();
     } catch (StrategoException e) {
       String msg = e.getClass().getName() + " " + e.getLocalizedMessage() != null ? e.getLocalizedMessage() : e.toString();
       log.logErr(msg, Log.DETAIL);
@@ -1173,138 +1700,22 @@ public class Driver extends Builder<DriverInput, Result> {
     }
   }
     
+  /**
+   * Generated files become requirements only once they are flushed. Callers
+   * that read generated files or their stamps must call {@link #flushOutputs()} first.
+   */
+  private TransitiveFileRequirements transitiveFileRequirements() throws IOException {
+    if (transitiveFileRequirements == null)
+      transitiveFileRequirements = new TransitiveFileRequirements(getBuildUnit());
+    return transitiveFileRequirements;
+  }
+    
   private void checkModuleName(String decName, IStrategoTerm toplevelDecl) {
     String expectedDecName = FileCommands.fileName(baseProcessor.getGeneratedSourceFile());
     if (expectedDecName != null && !expectedDecName.equals(decName))
       setErrorMessage(lastSugaredToplevelDecl, "Declaration name " + decName + " does not match file name " + expectedDecName);
   }
 
-  @SuppressWarnings("unchecked")
-  private static synchronized void initializeCaches(Environment environment, boolean force) throws IOException {
-    if (environment.getCacheDir() == null)
-      return;
-    
-    Path stdlibVersion = environment.createCachePath("version");
-    if (!stdlibVersion.getFile().exists() || !FileCommands.readFileAsString(stdlibVersion).equals(StdLib.VERSION)) {
-      for (File f : environment.getCacheDir().getFile().listFiles())
-        f.delete();
-      FileCommands.writeToFile(stdlibVersion, StdLib.VERSION);
-    }
-    
-    Path sdfCachePath = environment.createCachePath("sdfCaches");
-    Path strCachePath = environment.createCachePath("strCaches");
-    
-    if (sdfCaches == null || force)
-      sdfCaches = new HashMap<Path, ModuleKeyCache<Path>>();
-    if (strCaches == null || force)
-      strCaches = new HashMap<Path, ModuleKeyCache<Path>>();
-    
-    if (!sdfCaches.containsKey(environment.getCacheDir()) || force) {
-      ObjectInputStream sdfIn = null;
-      try {
-        sdfIn = new ObjectInputStream(new FileInputStream(sdfCachePath.getFile()));
-        if (!sdfCaches.containsKey(environment.getCacheDir())) {
-          ModuleKeyCache<Path> sdfLocalCaches = (ModuleKeyCache<Path>) sdfIn.readObject();
-          sdfCaches.put(environment.getCacheDir(), sdfLocalCaches);
-        }
-      } catch (Exception e) {
-//        e.printStackTrace();
-        sdfCaches.put(environment.getCacheDir(), new ModuleKeyCache<Path>(sdfCaches));
-      } finally {
-        if (sdfIn != null)
-          sdfIn.close();
-      }
-    }
-    
-    if (!strCaches.containsKey(environment.getCacheDir()) || force) {
-      ObjectInputStream strIn = null;
-      try {
-        strIn = new ObjectInputStream(new FileInputStream(strCachePath.getFile()));
-        if (!strCaches.containsKey(environment.getCacheDir())) {
-          ModuleKeyCache<Path> strLocalCaches = (ModuleKeyCache<Path>) strIn.readObject();
-          strCaches.put(environment.getCacheDir(), strLocalCaches);
-        }
-      } catch (Exception e) {
-//        e.printStackTrace();
-        strCaches.put(environment.getCacheDir(), new ModuleKeyCache<Path>(strCaches));
-      } finally {
-        if (strIn != null)
-          strIn.close();
-      }
-    }
-  }
-
-  private static ModuleKeyCache<Path> selectCache(Map<Path, ModuleKeyCache<Path>> caches, AbstractBaseLanguage baseLang, Environment environment) throws IOException {
-    if (caches == null)
-      return null;
-    synchronized (caches) {
-      ModuleKeyCache<Path> cache = caches.get(environment.getCacheDir());
-      Path versionPath = environment.createCachePath(baseLang.getLanguageName() + ".version");
-      if (cache != null &&
-          (!FileCommands.exists(versionPath) || !baseLang.getVersion().equals(FileCommands.readFileAsString(versionPath))))
-        cache = null;
-      if (cache == null) {
-        cache = new ModuleKeyCache<Path>(caches);
-        FileCommands.writeToFile(versionPath, baseLang.getVersion());
-        caches.put(environment.getCacheDir(), cache);
-      }
-      return cache;
-    }
-  }
-  
-//TODO is this needed?
-//  private static ModuleKeyCache<Path> reallocate(ModuleKeyCache<Path> cache, Environment env) {
-//    ModuleKeyCache<Path> res = new ModuleKeyCache<Path>();
-//    
-//    for (Entry<ModuleKey, Path> e : cache.entrySet()) {
-//      Map<Path, Integer> imports = new HashMap<Path, Integer>();
-//      for (Entry<Path, Integer> e2 : e.getKey().imports.entrySet())
-//        imports.put(Path.reallocate(e2.getKey(), env), e2.getValue());
-//      
-//      res.put(new ModuleKey(imports, e.getKey().body), Path.reallocate(e.getValue(), env));
-//    }
-//    
-//    return res;
-//  }
-
-
-  private static synchronized void storeCaches(Environment environment) throws IOException {
-    if (environment.getCacheDir() == null)
-      return;
-    
-    Path cacheVersion = environment.createCachePath("version");
-    FileCommands.writeToFile(cacheVersion, StdLib.VERSION);
-    
-    Path sdfCachePath = environment.createCachePath("sdfCaches");
-    Path strCachePath = environment.createCachePath("strCaches");
-
-    if (!sdfCachePath.getFile().exists())
-      FileCommands.createFile(sdfCachePath);
-
-    if (!strCachePath.getFile().exists())
-      FileCommands.createFile(strCachePath);
-    
-    if (sdfCaches != null) {
-      ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(sdfCachePath.getFile()));
-      try {
-        oos.writeObject(sdfCaches.get(environment.getCacheDir()));
-      } finally {
-        oos.close();
-      }
-    }
-    
-    if (strCaches != null) {
-      ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(strCachePath.getFile()));
-      try {
-        oos.writeObject(strCaches.get(environment.getCacheDir()));
-      } finally {
-        oos.close();
-      }
-    }
-  }
-
-
-  
   /**
    * @return the non-desugared syntax tree of the complete file.
    */
@@ -1335,6 +1746,7 @@ public class Driver extends Builder<DriverInput, Result> {
   
   public synchronized void interrupt() {
     this.interrupt = true;
+    cancellation.cancel();
   }
   
   private synchronized void stopIfInterrupted() throws InterruptedException {
@@ -1419,9 +1831,36 @@ public class Driver extends Builder<DriverInput, Result> {
     return "Driver(" + input.sourceFilePath + ")";
   }
   
+  /**
+   * Writes `content` to `file` behind the build and provides `file`
+   * once it is written, see {@link #flushOutputs()}.
+   */
   public void generateFile(Path file, String content) throws IOException {
-    FileCommands.writeToFile(file, content);
-    provide(file);
+    outputs.write(file, content);
+    unprovidedOutputs.add(file);
+  }
+  
+  /**
+   * Writes all pending generated files and provides them.
+   */
+  private void flushOutputs() throws IOException {
+    outputs.flush();
+    if (!unprovidedOutputs.isEmpty())
+      ModelCache.outputsWritten();
+    for (Path file : unprovidedOutputs)
+      provide(file);
+    unprovidedOutputs.clear();
+  }
+  
+  /**
+   * @return the model stored in `model`, shared with other readers, see {@link ModelCache}.
+   */
+  private IStrategoTerm readModel(Path model) throws IOException {
+    return ModelCache.read(model, env.getStamper().stampOf(model));
+  }
+  
+  private boolean outputExists(Path file) {
+    return outputs.isPending(file) || FileCommands.exists(file);
   }
 
 }
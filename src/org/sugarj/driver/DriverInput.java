@@ -61,6 +61,27 @@ public class DriverInput implements Serializable {
    */
   public final BuildRequest<?, ?, ?, ?>[] injectedRequirements;
   
+  /**
+   * Only parse `sourceFilePath`, using the grammar of its imports and sugar declarations,
+   * without transforming declarations or compiling generated files.
+   */
+  public final boolean parseOnly;
+  
+  /**
+   * Batch that compiles the generated files of this build, or null if the build compiles them itself.
+   */
+  transient CompilationBatch compilationBatch;
+  
+  /**
+   * Coordinator ticket of this build, or null if the build is not coordinated.
+   */
+  transient BuildCoordinator.Ticket ticket;
+  
+  /**
+   * Compiler session of this build, or null for the default session.
+   */
+  private transient CompilerSession session;
+  
   public DriverInput(Environment env, AbstractBaseLanguage baseLang, RelativePath sourceFile, IProgressMonitor monitor, BuildRequest<?, ?, ?, ?>... injectedRequirements) throws IOException {
     this(env, baseLang, sourceFile, null, null, new LinkedList<FromTo>(), monitor, injectedRequirements);
   }
@@ -82,12 +103,17 @@ public class DriverInput implements Serializable {
   }
 
   public DriverInput(Environment env, AbstractBaseLanguage baseLang, RelativePath sourceFile, String editedSource, Stamp editedSourceStamp, List<FromTo> renamings, IProgressMonitor monitor, BuildRequest<?, ?, ?, ?>... injectedRequirements) {
+    this(env, baseLang, sourceFile, editedSource, editedSourceStamp, renamings, false, monitor, injectedRequirements);
+  }
+  
+  public DriverInput(Environment env, AbstractBaseLanguage baseLang, RelativePath sourceFile, String editedSource, Stamp editedSourceStamp, List<FromTo> renamings, boolean parseOnly, IProgressMonitor monitor, BuildRequest<?, ?, ?, ?>... injectedRequirements) {
     this.env = env;
     this.baseLang = baseLang;
     this.sourceFilePath = sourceFile;
     this.editedSource = editedSource;
     this.editedSourceStamp = editedSourceStamp;
     this.renamings = renamings;
+    this.parseOnly = parseOnly;
     this.monitor = monitor;
     this.injectedRequirements = injectedRequirements;
   }
@@ -95,4 +121,12 @@ public class DriverInput implements Serializable {
   public Environment getOriginalEnvironment() {
     return env;
   }
+  
+  public CompilerSession getSession() {
+    return session == null ? CompilerSession.getDefault() : session;
+  }
+  
+  public void setSession(CompilerSession session) {
+    this.session = session;
+  }
 }
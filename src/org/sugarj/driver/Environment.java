@@ -41,6 +41,37 @@ public class Environment implements IORelay, Serializable, Cloneable {
    * don't check resulting sdf and stratego files after splitting
    */
   private boolean noChecking = false;
+  
+  /*
+   * locate and load the modules of an import block concurrently before processing the imports
+   */
+  private boolean parallelImports = false;
+  
+  /*
+   * reuse results of analyzing and desugaring unchanged declarations with unchanged transformations
+   */
+  private boolean memoizeDesugarings = false;
+  
+  /*
+   * reuse parse results of unchanged source files from the cache (ignored for edited sources)
+   */
+  private boolean cacheParses = false;
+  
+  /*
+   * compile the generated files of all modules built by a driver run in one go
+   */
+  private boolean batchCompilation = false;
+  
+  /*
+   * directory to which generated parse tables and assimilators are bundled, or null
+   */
+  private Path artifactExportDir = null;
+  
+  /*
+   * archives to seed the cache from before building and to pack the cache into after building, or null
+   */
+  private Path cacheImportArchive = null;
+  private Path cacheExportArchive = null;
 
   private Path tmpDir = new AbsolutePath(System.getProperty("java.io.tmpdir"));
   
@@ -110,6 +141,62 @@ public class Environment implements IORelay, Serializable, Cloneable {
     this.noChecking = noChecking;
   }
 
+  public boolean isParallelImports() {
+    return parallelImports;
+  }
+
+  public void setParallelImports(boolean parallelImports) {
+    this.parallelImports = parallelImports;
+  }
+
+  public boolean isMemoizeDesugarings() {
+    return memoizeDesugarings;
+  }
+
+  public void setMemoizeDesugarings(boolean memoizeDesugarings) {
+    this.memoizeDesugarings = memoizeDesugarings;
+  }
+
+  public boolean isCacheParses() {
+    return cacheParses;
+  }
+
+  public void setCacheParses(boolean cacheParses) {
+    this.cacheParses = cacheParses;
+  }
+
+  public boolean isBatchCompilation() {
+    return batchCompilation;
+  }
+
+  public void setBatchCompilation(boolean batchCompilation) {
+    this.batchCompilation = batchCompilation;
+  }
+
+  public Path getArtifactExportDir() {
+    return artifactExportDir;
+  }
+
+  public void setArtifactExportDir(Path artifactExportDir) {
+    this.artifactExportDir = artifactExportDir;
+  }
+
+  public Path getCacheImportArchive() {
+    return cacheImportArchive;
+  }
+
+  public void setCacheImportArchive(Path cacheImportArchive) {
+    this.cacheImportArchive = cacheImportArchive;
+  }
+
+  public Path getCacheExportArchive() {
+    return cacheExportArchive;
+  }
+
+  public void setCacheExportArchive(Path cacheExportArchive) {
+    this.cacheExportArchive = cacheExportArchive;
+  }
+
   public Path getTmpDir() {
     return tmpDir;
   }
@@ -164,6 +251,14 @@ public class Environment implements IORelay, Serializable, Cloneable {
     clone.stamper = stamper;
     clone.atomicImportParsing = atomicImportParsing;
     clone.noChecking = noChecking;
+    clone.parallelImports = parallelImports;
+    clone.memoizeDesugarings = memoizeDesugarings;
+    clone.cacheParses = cacheParses;
+    clone.batchCompilation = batchCompilation;
+    clone.artifactExportDir = artifactExportDir;
+    clone.cacheImportArchive = cacheImportArchive;
+    clone.cacheExportArchive = cacheExportArchive;
+    clone.tmpDir = tmpDir;
     clone.sourcePath = new ArrayList<>(sourcePath);
     clone.includePath = new ArrayList<>(includePath);
     return clone;
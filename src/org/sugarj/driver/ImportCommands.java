@@ -54,6 +54,13 @@ public class ImportCommands {
       Pair<RelativePath, DriverBuildRequest> resolvedModel = resolveModule(model, true);
       Pair<RelativePath, DriverBuildRequest> resolvedTransformation = resolveModule(transformation, false);
       
+      // do not require a transformation again that already failed in this build
+      String failure = resolvedModel == null || resolvedTransformation == null ? null : driver.getTransformationFailure(resolvedModel.a, resolvedTransformation.a);
+      if (failure != null) {
+        driver.setErrorMessage("model transformation failed: " + failure);
+        return null;
+      }
+      
       Pair<RelativePath, ? extends BuildRequest<?,?,?,?>> transformedModel = transformModel(resolvedModel.a, resolvedModel.b, resolvedTransformation.a, resolvedTransformation.b, term);
       RelativePath sourceFile = transformedModel.a;
       DriverBuildRequest req = driver.subcompile(sourceFile, transformedModel.b);
@@ -74,6 +81,27 @@ public class ImportCommands {
     }
   }
 
+  /**
+   * Resolves a transformation application to the request that transforms its model,
+   * without building anything.
+   * 
+   * @return the transformation request or null if the term is not a resolvable transformation application.
+   */
+  public BuildRequest<?, ?, ?, ?> resolveTransformation(IStrategoTerm term) throws TokenExpectedException, IOException, ParseException, InvalidParseTableException, SGLRException, InterruptedException, ClassNotFoundException {
+    if (!ATermCommands.isApplication(term, "TransApp"))
+      return null;
+    
+    IStrategoTerm model = ATermCommands.getApplicationSubterm(term, "TransApp", 1);
+    IStrategoTerm transformation = ATermCommands.getApplicationSubterm(term, "TransApp", 0);
+    
+    Pair<RelativePath, DriverBuildRequest> resolvedModel = resolveModule(model, true);
+    Pair<RelativePath, DriverBuildRequest> resolvedTransformation = resolveModule(transformation, false);
+    if (resolvedModel == null || resolvedTransformation == null)
+      return null;
+    
+    return transformModel(resolvedModel.a, resolvedModel.b, resolvedTransformation.a, resolvedTransformation.b, term).b;
+  }
+
   /**
    * Transforms the given model with the given transformation.
    * 
@@ -1,14 +1,9 @@
 package org.sugarj.driver;
 
-import static org.sugarj.common.Log.log;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +20,8 @@ import org.sugarj.common.FileCommands;
 import org.sugarj.common.Log;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.path.RelativePath;
+import org.sugarj.driver.caching.IncludePathIndex;
+import org.sugarj.util.StructuredLog;
 
 /**
  * @author Sebastian Erdweg <seba at informatik uni-marburg de>
@@ -51,7 +48,7 @@ public class ModuleSystemCommands {
       if (clazz == null)
         return null;
       
-      log.log("Found language-specific declaration for " + modulePath, Log.IMPORT);
+      StructuredLog.log(Log.IMPORT, "found language-specific declaration", "module", modulePath);
       return clazz;
     }
     
@@ -70,7 +67,7 @@ public class ModuleSystemCommands {
     if (sdf == null)
       return null;
     
-    log.log("Found syntax definition for " + modulePath, Log.IMPORT);
+    StructuredLog.log(Log.IMPORT, "found syntax definition", "module", modulePath);
     return sdf;
   }
   
@@ -89,7 +86,7 @@ public class ModuleSystemCommands {
     if (str == null)
       return null;
 
-    log.log("Found desugaring for " + modulePath, Log.IMPORT);
+    StructuredLog.log(Log.IMPORT, "found desugaring", "module", modulePath);
     return str;
   }
   
@@ -108,7 +105,7 @@ public class ModuleSystemCommands {
     
     BufferedReader reader = null;
     
-    log.beginTask("Incorporation", "Found editor services for " + modulePath, Log.IMPORT);
+    boolean task = StructuredLog.beginTask("Incorporation", Log.IMPORT, "found editor services", "module", modulePath);
     try {
       reader = new BufferedReader(new FileReader(serv.getFile()));
       String line;
@@ -121,7 +118,7 @@ public class ModuleSystemCommands {
       if (reader != null)
         reader.close();
       
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
@@ -131,7 +128,7 @@ public class ModuleSystemCommands {
     if (model == null)
       return null;
 
-    log.log("Found model for " + modulePath, Log.IMPORT);
+    StructuredLog.log(Log.IMPORT, "found model", "module", modulePath);
     return model;
   }
   
@@ -207,26 +204,16 @@ public class ModuleSystemCommands {
       relativePath = relativePath.substring(base.getAbsolutePath().length() + sepOffset);
     }
     
+    String file = relativePath + "." + extension;
+    
     if (base.getFile().isDirectory()) {
-      RelativePath p = new RelativePath(base, relativePath + "." + extension);
-      if (searchFile(p, driver) != null)
-        return p;
+      // directories are probed directly, since generated files appear in them during builds
+      RelativePath p = new RelativePath(base, file);
+      return searchFile(p, driver);
     }
     
-    URLClassLoader cl = null;
-    try {
-      cl = new URLClassLoader(new URL[] {base.getFile().toURI().toURL()}, null);
-      if (cl.getResource(relativePath + "." + extension) != null)
-        return new RelativePath(base, relativePath + "." + extension);
-    } catch (MalformedURLException e) {
-      e.printStackTrace();
-    } finally {
-      if (cl != null)
-        try {
-          cl.close();
-        } catch (IOException e) {
-        }
-    }
+    if (IncludePathIndex.contains(base.getFile(), file))
+      return new RelativePath(base, file);
     
     return null;
   }
@@ -0,0 +1,113 @@
+package org.sugarj.driver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.sugarj.common.path.Path;
+import org.sugarj.driver.caching.GeneratedFiles;
+
+/**
+ * Write-behind buffer for generated files.
+ *
+ * Repeated writes to the same file are coalesced, such that only the last
+ * content is written. Pending writes are flushed in batches on a background
+ * thread and, completely, by {@link #flush()}.
+ */
+public class OutputSink {
+
+  private final ExecutorService writer;
+
+  private final Map<Path, String> pending = new LinkedHashMap<>();
+  private Future<?> flushing;
+  private IOException failure;
+
+  /**
+   * @param writer executor that writes pending files, which must run batches one at a time and in order.
+   */
+  public OutputSink(ExecutorService writer) {
+    this.writer = writer;
+  }
+
+  /**
+   * Schedules writing `content` to `file`, replacing any pending content of `file`.
+   */
+  public synchronized void write(Path file, String content) {
+    pending.remove(file);
+    pending.put(file, content);
+
+    if (flushing == null || flushing.isDone())
+      flushing = writer.submit(new Runnable() {
+        @Override
+        public void run() {
+          writePending();
+        }
+      });
+  }
+
+  /**
+   * @return true iff a write to `file` is pending.
+   */
+  public synchronized boolean isPending(Path file) {
+    return pending.containsKey(file);
+  }
+
+  /**
+   * Writes all pending files and waits for writes in progress.
+   *
+   * @throws IOException if any write since the last flush failed.
+   */
+  public void flush() throws IOException {
+    Future<?> f;
+    synchronized (this) {
+      f = flushing;
+    }
+
+    if (f != null)
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while writing generated files");
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+
+    writePending();
+
+    synchronized (this) {
+      if (failure != null) {
+        IOException e = failure;
+        failure = null;
+        throw e;
+      }
+    }
+  }
+
+  private void writePending() {
+    while (true) {
+      Map<Path, String> batch;
+      synchronized (this) {
+        if (pending.isEmpty())
+          return;
+        batch = new LinkedHashMap<>(pending);
+        pending.clear();
+      }
+
+      for (Entry<Path, String> e : batch.entrySet())
+        try {
+          GeneratedFiles.write(e.getKey(), e.getValue());
+        } catch (IOException ex) {
+          synchronized (this) {
+            if (failure == null)
+              failure = ex;
+          }
+        }
+    }
+  }
+}
@@ -4,20 +4,22 @@ import static org.sugarj.common.FileCommands.toCygwinPath;
 import static org.sugarj.common.Log.log;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import org.spoofax.interpreter.library.IOAgent;
@@ -47,10 +49,14 @@ import org.sugarj.common.Log;
 import org.sugarj.common.path.AbsolutePath;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.util.Pair;
+import org.sugarj.driver.Cancellation.PrivateOutput;
+import org.sugarj.driver.caching.ArtifactBundles;
+import org.sugarj.driver.caching.BinaryTerms;
 import org.sugarj.driver.caching.ModuleKey;
 import org.sugarj.driver.caching.ModuleKeyCache;
 import org.sugarj.driver.transformations.extraction.extract_sdf_0_0;
 import org.sugarj.stdlib.StdLib;
+import org.sugarj.util.StructuredLog;
 
 /**
  * This class provides methods for various SDF commands. Each
@@ -65,8 +71,6 @@ public class SDFCommands {
   
   private final static Pattern SDF_FILE_PATTERN = Pattern.compile(".*\\.sdf");
   
-  private static ExecutorService parseExecutorService = Executors.newSingleThreadExecutor();
-  
   /*
    * timeout for parsing files (in milliseconds)
    */
@@ -82,16 +86,23 @@ public class SDFCommands {
   private final SGLR sdfParser;
   private final ModuleKeyCache<Path> sdfCache;
   private final Environment environment;
+  private final ScratchSpace scratch;
+  private final Cancellation cancellation;
 
-  public SDFCommands(SGLR sdfParser, ModuleKeyCache<Path> sdfCache, Environment environment) {
+  public SDFCommands(SGLR sdfParser, ModuleKeyCache<Path> sdfCache, Environment environment, ScratchSpace scratch, Cancellation cancellation) {
     this.sdfParser = sdfParser;
     this.sdfCache = sdfCache;
     this.environment = environment;
+    this.scratch = scratch;
+    this.cancellation = cancellation;
   }
   
-  private static IOAgent packSdfIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "  including .*");
-  private static IOAgent sdf2tableIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "Invoking native tool .*");
-  private static IOAgent makePermissiveIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "[ make_permissive | info ].*");
+  /*
+   * IO agents keep per-invocation state and thus are not shared between drivers
+   */
+  private final IOAgent packSdfIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "  including .*");
+  private final IOAgent sdf2tableIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "Invoking native tool .*");
+  private final IOAgent makePermissiveIOAgent = new FilteringIOAgent(Log.PARSE | Log.DETAIL, "[ make_permissive | info ].*");
   
   private void packSdf(
       Path sdf, 
@@ -99,24 +110,30 @@ public class SDFCommands {
       Collection<Path> paths, 
       List<Path> baseLanguageGrammars,
       Path baseLanguageDir) throws IOException {
+    final PrivateOutput output = new PrivateOutput(def);
+    
     /*
      * We can include as many paths as we want here, checking the
      * adequacy of the occurring imports is done elsewhere.
      */
     List<String> cmd = new ArrayList<String>(Arrays.asList(new String[]{
         "-i", FileCommands.nativePath(sdf.getAbsolutePath()),
-        "-o", FileCommands.nativePath(def.getAbsolutePath())
+        "-o", FileCommands.nativePath(output.getPath().getAbsolutePath())
     }));
     
     for (Path grammarFile : baseLanguageGrammars) {
       Map<String, Stamp> map = new HashMap<String, Stamp>();
-      map.put(grammarFile.getAbsolutePath(), FileHashStamper.instance.stampOf(grammarFile));
+      map.put(ModuleKey.cachePath(grammarFile, environment.getRoot(), namedBases(baseLanguageDir, null)), FileHashStamper.instance.stampOf(grammarFile));
       ModuleKey key = new ModuleKey(map, ""); 
       Path permissiveGrammar = lookupGrammarInCache(sdfCache, key);
       if (permissiveGrammar == null) {
-        permissiveGrammar = FileCommands.newTempFile("def");
+        permissiveGrammar = scratch.newFile("def");
         makePermissive(new AbsolutePath(grammarFile.getAbsolutePath()), permissiveGrammar);
-        permissiveGrammar = cacheParseTable(sdfCache, key, permissiveGrammar, environment);
+        Path cached = cacheParseTable(sdfCache, key, permissiveGrammar, environment);
+        if (!cached.equals(permissiveGrammar)) {
+          scratch.release(permissiveGrammar);
+          permissiveGrammar = cached;
+        }
       }
       
       cmd.add("-Idef");
@@ -134,70 +151,124 @@ public class SDFCommands {
         cmd.add(FileCommands.nativePath(path.getAbsolutePath()));
       }
     
-    // Pack-sdf requires a fresh context each time, because it caches grammars, which leads to a heap overflow.
-    Context sdfContext = org.strategoxt.tools.tools.init(); 
-    try {
-      sdfContext.setIOAgent(packSdfIOAgent);
-      sdfContext.invokeStrategyCLI(main_pack_sdf_0_0.instance, "pack-sdf", cmd.toArray(new String[cmd.size()]));
-    } catch(StrategoExit e) {
-      if (e.getValue() != 0) {
-        throw new RuntimeException(e);
+    final String[] args = cmd.toArray(new String[cmd.size()]);
+    cancellation.run("pack-sdf", new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        try {
+          // Pack-sdf requires a fresh context each time, because it caches grammars, which leads to a heap overflow.
+          Context sdfContext = org.strategoxt.tools.tools.init(); 
+          try {
+            sdfContext.setIOAgent(packSdfIOAgent);
+            sdfContext.invokeStrategyCLI(main_pack_sdf_0_0.instance, "pack-sdf", args);
+          } catch(StrategoExit e) {
+            if (e.getValue() != 0) {
+              throw new RuntimeException(e);
+            }
+          }
+          output.publish();
+        } finally {
+          output.discard();
+        }
+        return null;
       }
-    }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        output.discard();
+      }
+    });
     
     if (!def.getFile().exists())
       throw new RuntimeException("execution of pack-sdf failed");
   }
   
-  private static void sdf2Table(Path def, Path tbl, String module) throws IOException {
+  private void sdf2Table(Path def, Path tbl, String module) throws IOException {
     sdf2Table(def, tbl, module, false);
   }
   
-  private static void sdf2Table(Path def, Path tbl, String module, boolean normalize) throws IOException {
+  private void sdf2Table(Path def, Path tbl, String module, boolean normalize) throws IOException {
+    final PrivateOutput output = new PrivateOutput(tbl);
     String[] cmd; 
     
     if (!normalize)
       cmd = new String[] {
         "-i", toCygwinPath(def.getAbsolutePath()),
-        "-o", toCygwinPath(tbl.getAbsolutePath()),
+        "-o", toCygwinPath(output.getPath().getAbsolutePath()),
         "-m", module
       };
     else
       cmd = new String[] {
         "-i", toCygwinPath(def.getAbsolutePath()),
-        "-o", toCygwinPath(tbl.getAbsolutePath()),
+        "-o", toCygwinPath(output.getPath().getAbsolutePath()),
         "-m", module,
         "-n"
       };
     
-    IStrategoTerm termArgs[] = new IStrategoTerm[cmd.length];
+    final IStrategoTerm termArgs[] = new IStrategoTerm[cmd.length];
     for (int i = 0; i < termArgs.length; i++)
       termArgs[i] = ATermCommands.makeString(cmd[i], null);
     
-    Context xtcContext = SugarJContexts.xtcContext();
-    try {
-      xtcContext.setIOAgent(sdf2tableIOAgent);
-      SDFBundleCommand.getInstance().init();
-      SDFBundleCommand.getInstance().invoke(xtcContext, "sdf2table", termArgs);
-    } finally {
-      SugarJContexts.releaseContext(xtcContext);
-    }
+    /*
+     * context of the running invocation, taken by whoever finishes with it first:
+     * the worker releases it, the abort action discards it
+     */
+    final AtomicReference<Context> running = new AtomicReference<Context>();
+    
+    cancellation.run("sdf2table", new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        Context xtcContext = SugarJContexts.xtcContext();
+        running.set(xtcContext);
+        boolean done = false;
+        try {
+          if (cancellation.isCancelled())
+            throw new InterruptedIOException("sdf2table cancelled");
+          xtcContext.setIOAgent(sdf2tableIOAgent);
+          SDFBundleCommand.getInstance().init();
+          SDFBundleCommand.getInstance().invoke(xtcContext, "sdf2table", termArgs);
+          output.publish();
+          done = true;
+        } finally {
+          output.discard();
+          Context ctx = running.getAndSet(null);
+          // the context of an aborted invocation must not be reused
+          if (ctx != null && done)
+            SugarJContexts.releaseContext(ctx);
+          else if (ctx != null)
+            SugarJContexts.discardContext(ctx);
+        }
+        return null;
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        output.discard();
+        SugarJContexts.discardContext(running.getAndSet(null));
+      }
+    });
     
     if (!tbl.getFile().exists())
       throw new RuntimeException("execution of sdf2table failed");
   }
 
-  private static void normalizeTable(Path def, String module) throws IOException {
-    Path tbl = FileCommands.newTempFile("tbl");
-    sdf2Table(def, tbl, module, true);
-    FileCommands.deleteTempFiles(tbl);
+  private void normalizeTable(Path def, String module) throws IOException {
+    Path tbl = scratch.newFile("tbl");
+    try {
+      sdf2Table(def, tbl, module, true);
+    } finally {
+      scratch.release(tbl);
+    }
   }
   
   public void check(Path sdf, String module, Collection<Path> paths, List<Path> baseLanguageGrammars, Path baseLanguageDir) throws IOException {
-    Path def = FileCommands.newTempFile("def");
-    packSdf(sdf, def, paths, baseLanguageGrammars, baseLanguageDir);
-    normalizeTable(def, module);
-    FileCommands.deleteTempFiles(def);
+    Path def = scratch.newFile("def");
+    try {
+      packSdf(sdf, def, paths, baseLanguageGrammars, baseLanguageDir);
+      normalizeTable(def, module);
+    } finally {
+      scratch.release(def);
+    }
   }
   
   /**
@@ -216,17 +287,100 @@ public class SDFCommands {
                                                           InvalidParseTableException, 
                                                           TokenExpectedException, 
                                                           SGLRException {
-    ModuleKey key = getModuleKeyForGrammar(sdf, module, dependentFiles);
+    return compile(sdf, module, dependentFiles, null, baseLanguageGrammars, baseLanguageDir).a;
+  }
+  
+  /**
+   * Like {@link #compile(Path, String, Set, List, Path)}, but additionally
+   * looks up imported modules in `grammarDir`, if not null. Module keys name
+   * the grammars in `grammarDir` relative to it ({@link ModuleKey#PARSED_BASE}).
+   * 
+   * @return the filename of the compiled .tbl file and the digest of its module key.
+   */
+  public Pair<Path, String> compile(final Path sdf,
+                              final String module, 
+                              final Set<Path> dependentFiles, 
+                              final Path grammarDir,
+                              final List<Path> baseLanguageGrammars,
+                              final Path baseLanguageDir) throws IOException,
+                                                          InvalidParseTableException, 
+                                                          TokenExpectedException, 
+                                                          SGLRException {
+    final ModuleKey key = getModuleKeyForGrammar(sdf, module, dependentFiles, namedBases(baseLanguageDir, grammarDir));
     Path tbl = lookupGrammarInCache(sdfCache, key);
     if (tbl == null) {
-      tbl = generateParseTable(key, sdf, module, environment.getIncludePath(), baseLanguageGrammars, baseLanguageDir);
-      tbl = cacheParseTable(sdfCache, key, tbl, environment);
+      Callable<Path> generate = new Callable<Path>() {
+        @Override
+        public Path call() throws IOException, InvalidParseTableException {
+          // another driver may have generated the table while we computed the key
+          Path tbl = lookupGrammarInCache(sdfCache, key);
+          if (tbl != null)
+            return tbl;
+          
+          ModuleKey bundleKey = null;
+          if (environment.getArtifactExportDir() != null || ArtifactBundles.hasBundles(environment.getIncludePath())) {
+            bundleKey = ArtifactBundles.relocatableKey(key.body, dependentFiles, environment.getIncludePath(), SDF_FILE_PATTERN);
+            Path bundled = ArtifactBundles.lookup(bundleKey, environment.getIncludePath());
+            if (bundled != null)
+              return cacheParseTable(sdfCache, key, bundled, environment);
+          }
+          
+          List<Path> includePath = environment.getIncludePath();
+          if (grammarDir != null) {
+            includePath = new ArrayList<Path>(includePath);
+            includePath.add(grammarDir);
+          }
+          tbl = generateParseTable(key, sdf, module, includePath, baseLanguageGrammars, baseLanguageDir);
+          if (environment.getArtifactExportDir() != null)
+            ArtifactBundles.export(bundleKey, tbl, environment.getArtifactExportDir());
+          Path cached = cacheParseTable(sdfCache, key, tbl, environment);
+          if (!cached.equals(tbl))
+            scratch.release(tbl);
+          return cached;
+        }
+      };
+      tbl = computeOnce(sdfCache, key, generate, cancellation);
     }
     
     if (tbl != null)
-      log.log("use generated table " + tbl, Log.CACHING);
+      StructuredLog.log(Log.CACHING, "use generated table", "location", tbl);
     
-    return tbl;
+    return Pair.create(tbl, key.digest());
+  }
+  
+  /**
+   * Runs `generate` unless another driver is already generating
+   * the parse table for an equal key, in which case we wait for its result.
+   * If the other driver was cancelled, we generate the parse table ourselves.
+   */
+  private static Path computeOnce(ModuleKeyCache<Path> sdfCache, ModuleKey key, Callable<Path> generate, Cancellation cancellation) throws IOException, InvalidParseTableException {
+    while (true) {
+      try {
+        if (sdfCache == null)
+          return generate.call();
+        return sdfCache.computeOnce(key, generate);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof InterruptedIOException && !cancellation.isCancelled())
+          continue;
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof InvalidParseTableException)
+          throw (InvalidParseTableException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new RuntimeException("parse-table generation failed", cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for parse table");
+      } catch (IOException | InvalidParseTableException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("parse-table generation failed", e);
+      }
+    }
   }
   
   
@@ -234,7 +388,7 @@ public class SDFCommands {
     if (sdfCache == null)
       return tbl;
     
-    log.beginTask("Caching", "Cache parse table", Log.CACHING);
+    boolean task = StructuredLog.beginTask("Caching", Log.CACHING, "Cache parse table");
     try {
       Path cacheTbl = environment.createCachePath(tbl.getFile().getName());
       FileCommands.copyFile(tbl, cacheTbl);
@@ -242,10 +396,10 @@ public class SDFCommands {
       Path oldTbl = sdfCache.putGet(key, cacheTbl);
       FileCommands.delete(oldTbl);
 
-      log.log("Cache Location: " + cacheTbl, Log.CACHING);
+      StructuredLog.log(Log.CACHING, "cached parse table", "location", cacheTbl);
       return cacheTbl;
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
@@ -255,38 +409,68 @@ public class SDFCommands {
     
     Path result = null;
     
-    log.beginTask("Searching", "Search parse table in cache", Log.CACHING);
+    boolean task = StructuredLog.beginTask("Searching", Log.CACHING, "Search parse table in cache");
     try {
       result = sdfCache.get(key);
       
       if (result == null || !result.getFile().exists())
         return null;
 
-      log.log("Cache location: '" + result + "'", Log.CACHING);
+      StructuredLog.log(Log.CACHING, "found in cache", "location", result);
       
       return result;
     } finally {
-      log.endTask(result != null);
+      StructuredLog.endTask(task, result != null);
     }
   }
   
-  private ModuleKey getModuleKeyForGrammar(Path sdf, String module, Set<Path> dependentFiles) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
-    log.beginTask("Generating", "Generate module key for current grammar", Log.CACHING);
+  private static Map<String, Path> namedBases(Path baseLanguageDir, Path grammarDir) {
+    Map<String, Path> bases = new LinkedHashMap<String, Path>();
+    bases.put(ModuleKey.PLUGIN_BASE, baseLanguageDir);
+    bases.put(ModuleKey.PARSED_BASE, grammarDir);
+    return bases;
+  }
+  
+  private ModuleKey getModuleKeyForGrammar(Path sdf, String module, Set<Path> dependentFiles, Map<String, Path> namedBases) throws IOException, InvalidParseTableException, TokenExpectedException, SGLRException {
+    boolean task = StructuredLog.beginTask("Generating", Log.CACHING, "Generate module key for current grammar");
     try {
-      IStrategoTerm aterm = (IStrategoTerm) sdfParser.parse(FileCommands.readFileAsString(sdf), sdf.getAbsolutePath(), "Sdf2Module");
+      IStrategoTerm aterm = BinaryTerms.readSidecar(sdf);
+      if (aterm == null)
+        aterm = (IStrategoTerm) sdfParser.parse(FileCommands.readFileAsString(sdf), sdf.getAbsolutePath(), "Sdf2Module");
 
       IStrategoTerm imports = ATermCommands.getApplicationSubterm(aterm, "module", 1);
       IStrategoTerm body = ATermCommands.getApplicationSubterm(aterm, "module", 2);
       IStrategoTerm term = ATermCommands.makeTuple(imports, body);
 
-      return new ModuleKey(environment.getStamper(), dependentFiles, environment.getRoot(), SDF_FILE_PATTERN, term);
+      return new ModuleKey(environment.getStamper(), dependentFiles, environment.getRoot(), namedBases, SDF_FILE_PATTERN, term);
     } catch (Exception e) {
       throw new SGLRException(sdfParser, "could not parse SDF file " + sdf, e);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
+  /**
+   * @return the abstract syntax of an SDF module `module` that only imports `imports`,
+   *   as produced by parsing the module.
+   */
+  public static IStrategoTerm makeCompoundModule(String module, List<String> imports) {
+    List<IStrategoTerm> importTerms = new ArrayList<IStrategoTerm>();
+    for (String imp : imports)
+      importTerms.add(ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("module", 1), makeModuleName(imp)));
+    
+    IStrategoTerm impSection = ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("imports", 1), ATermCommands.factory.makeList(importTerms));
+    return ATermCommands.factory.makeAppl(
+        ATermCommands.factory.makeConstructor("module", 3),
+        makeModuleName(module),
+        ATermCommands.factory.makeList(impSection),
+        ATermCommands.factory.makeList());
+  }
+  
+  private static IStrategoTerm makeModuleName(String module) {
+    return ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("unparameterized", 1), ATermCommands.factory.makeString(module));
+  }
+
   private Path generateParseTable(ModuleKey key,
                                          Path sdf,
                                          String module,
@@ -296,34 +480,43 @@ public class SDFCommands {
       throws IOException, InvalidParseTableException {
     log.beginTask("Generating", "Generate the parse table", Log.PARSE);
     try {
-      Path tblFile = null;
-      
-      tblFile = FileCommands.newTempFile("tbl");
-
-      Path def = FileCommands.newTempFile("def");
-      packSdf(sdf, def, paths, baseLanguageGrammars, baseLanguageDir);
-      sdf2Table(def, tblFile, module);
-      FileCommands.deleteTempFiles(def);
+      Path tblFile = scratch.newFile("tbl");
+      Path def = scratch.newFile("def");
+      boolean success = false;
+      try {
+        packSdf(sdf, def, paths, baseLanguageGrammars, baseLanguageDir);
+        sdf2Table(def, tblFile, module);
+        success = true;
+      } finally {
+        scratch.release(def);
+        // drop partial output of failed or cancelled runs
+        if (!success)
+          scratch.release(tblFile);
+      }
       return tblFile;
     } finally {
       log.endTask();
     }
   }
   
-  public static String makePermissiveSdf(String source) throws IOException {
-    Path def = FileCommands.newTempFile("def");
-    Path permissiveDef = FileCommands.newTempFile("def-permissive");
-    
-    FileCommands.writeToFile(def, sdfToDef(source));
-    makePermissive(def, permissiveDef);
-    
-    String s = defToSdf(FileCommands.readFileAsString(permissiveDef)); // drop "definition\n"
-    FileCommands.deleteTempFiles(def);
-    FileCommands.deleteTempFiles(permissiveDef);
-    return s;
+  public String makePermissiveSdf(String source) throws IOException {
+    Path def = scratch.newFile("def");
+    try {
+      Path permissiveDef = scratch.newFile("def-permissive");
+      try {
+        FileCommands.writeToFile(def, sdfToDef(source));
+        makePermissive(def, permissiveDef);
+        
+        return defToSdf(FileCommands.readFileAsString(permissiveDef)); // drop "definition\n"
+      } finally {
+        scratch.release(permissiveDef);
+      }
+    } finally {
+      scratch.release(def);
+    }
   }
   
-  private static void makePermissive(Path def, Path permissiveDef) throws IOException {
+  private void makePermissive(Path def, Path permissiveDef) throws IOException {
     if (!USE_PERMISSIVE_GRAMMARS) {
       FileCommands.copyFile(def, permissiveDef);
       return;
@@ -360,7 +553,7 @@ public class SDFCommands {
    * @throws SGLRException 
    * @throws TokenExpectedException 
    */
-  private static Pair<SGLR, Pair<IStrategoTerm, Integer>> sglr(ParseTable table, final String source, final String sourceDesc, final String start, boolean useRecovery, final boolean parseMax, ITreeBuilder treeBuilder) throws SGLRException {
+  private static Pair<SGLR, Pair<IStrategoTerm, Integer>> sglr(ExecutorService parseExecutor, ParseTable table, final String source, final String sourceDesc, final String start, boolean useRecovery, final boolean parseMax, ITreeBuilder treeBuilder) throws SGLRException {
     if (treeBuilder instanceof RetractableTreeBuilder && ((RetractableTreeBuilder) treeBuilder).isInitialized())
       ((RetractableTokenizer) treeBuilder.getTokenizer()).setKeywordRecognizer(table.getKeywordRecognizer());
     
@@ -379,7 +572,7 @@ public class SDFCommands {
         }
     }};
     
-    Future<Pair<IStrategoTerm, Integer>> res = parseExecutorService.submit(parseCallable);
+    Future<Pair<IStrategoTerm, Integer>> res = parseExecutor.submit(parseCallable);
     try {
       Pair<IStrategoTerm, Integer> result = res.get(PARSE_TIMEOUT, TimeUnit.MILLISECONDS);
       return Pair.create(parser, result);
@@ -396,25 +589,35 @@ public class SDFCommands {
   }
   
   public static Pair<SGLR, Pair<IStrategoTerm, Integer>> parseImplode(ParseTable table, String source, String sourceDesc, String start, boolean useRecovery, boolean parseMax, ITreeBuilder treeBuilder) throws IOException, SGLRException {
-    return parseImplode(table, null, source, sourceDesc, start, useRecovery, parseMax, treeBuilder);
+    return parseImplode(CompilerSession.getDefault(), table, null, source, sourceDesc, start, useRecovery, parseMax, treeBuilder);
+  }
+  
+  /**
+   * Parses on a parser thread of `session`.
+   */
+  public static Pair<SGLR, Pair<IStrategoTerm, Integer>> parseImplode(CompilerSession session, ParseTable table, String source, String sourceDesc, String start, boolean useRecovery, boolean parseMax, ITreeBuilder treeBuilder) throws IOException, SGLRException {
+    return parseImplode(session, table, null, source, sourceDesc, start, useRecovery, parseMax, treeBuilder);
   }
   
-  private static Pair<SGLR, Pair<IStrategoTerm, Integer>> parseImplode(ParseTable table, Path tbl, String source, String sourceDesc, String start, boolean useRecovery, boolean parseMax, ITreeBuilder treeBuilder) throws IOException, SGLRException {
+  private static Pair<SGLR, Pair<IStrategoTerm, Integer>> parseImplode(CompilerSession session, ParseTable table, Path tbl, String source, String sourceDesc, String start, boolean useRecovery, boolean parseMax, ITreeBuilder treeBuilder) throws IOException, SGLRException {
     log.beginExecution("parsing", Log.PARSE);
 
     Pair<SGLR, Pair<IStrategoTerm, Integer>> result = null;
     try {
-      result = sglr(table, source, sourceDesc, start, useRecovery, parseMax, treeBuilder);
+      result = sglr(session.getParseExecutor(), table, source, sourceDesc, start, useRecovery, parseMax, treeBuilder);
     }
     finally {
       if (result != null && result.b != null)
         log.endTask();
-      else {
+      else if (StructuredLog.isLogging(Log.PARSE)) {
+        // keep the failed input for reproducing the failure from the command line
         Path tmpSourceFile = FileCommands.newTempFile("");
         FileCommands.writeToFile(tmpSourceFile, source.toString());
         log.endTask("failed: " + 
             log.commandLineAsString(new String[] {"jsglri", "-p", tbl == null ? "unknown" : tbl.getAbsolutePath(), "-i " + tmpSourceFile + "-s", start}));
       }
+      else
+        log.endTask(false);
     }
     
     return result;
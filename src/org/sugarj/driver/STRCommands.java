@@ -5,11 +5,18 @@ import static org.sugarj.common.Log.log;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.spoofax.interpreter.core.Interpreter;
@@ -34,12 +41,17 @@ import org.sugarj.common.FileCommands;
 import org.sugarj.common.FilteringIOAgent;
 import org.sugarj.common.Log;
 import org.sugarj.common.path.Path;
+import org.sugarj.driver.Cancellation.PrivateOutput;
+import org.sugarj.driver.caching.ArtifactBundles;
+import org.sugarj.driver.caching.BinaryTerms;
+import org.sugarj.driver.caching.Digests;
 import org.sugarj.driver.caching.ModuleKey;
 import org.sugarj.driver.caching.ModuleKeyCache;
 import org.sugarj.driver.transformations.extraction.extract_editor_0_0;
 import org.sugarj.driver.transformations.extraction.extract_str_0_0;
 import org.sugarj.driver.transformations.renaming.rename_rules_0_2;
 import org.sugarj.stdlib.StdLib;
+import org.sugarj.util.StructuredLog;
 
 /**
  * This class provides methods for various SDF commands. Each
@@ -51,13 +63,23 @@ import org.sugarj.stdlib.StdLib;
 public class STRCommands {
   
 
-  private static IOAgent strjIOAgent = new FilteringIOAgent(Log.CORE | Log.TRANSFORM, 
+  /*
+   * per instance, such that concurrent drivers do not share IO state
+   */
+  private final IOAgent strjIOAgent = new FilteringIOAgent(Log.CORE | Log.TRANSFORM, 
                                                             Pattern.quote("[ strj | info ]") + ".*", 
                                                             Pattern.quote("[ strj | error ] Compilation failed") + ".*",
                                                             Pattern.quote("[ strj | warning ] Nullary constructor") + ".*");
   
   private final static Pattern STR_FILE_PATTERN = Pattern.compile(".*\\.str");
   
+  /*
+   * content digest of the program last loaded into an interpreter; an entry
+   * is removed before any other load and when a load or execution is aborted;
+   * interpreters belong to a single driver, so entries are never shared
+   */
+  private final static Map<HybridInterpreter, String> loadedPrograms = Collections.synchronizedMap(new WeakHashMap<HybridInterpreter, String>());
+  
   private final static Path FAILED_COMPILATION_PATH;
   static {
     try {
@@ -70,17 +92,22 @@ public class STRCommands {
   private final SGLR strParser;
   private final ModuleKeyCache<Path> strCache;
   private final Environment environment;
+  private final ScratchSpace scratch;
+  private final Cancellation cancellation;
   
-  public STRCommands(SGLR strParser, ModuleKeyCache<Path> strCache, Environment environment) {
+  public STRCommands(SGLR strParser, ModuleKeyCache<Path> strCache, Environment environment, ScratchSpace scratch, Cancellation cancellation) {
     this.strParser = strParser;
     this.strCache = strCache;
     this.environment = environment;
+    this.scratch = scratch;
+    this.cancellation = cancellation;
   }
 
   /**
    *  Compiles a {@code *.str} file to a single {@code *.java} file. 
    */
-  private static void strj(boolean normalize, Path str, Path out, Collection<Path> paths, Path baseLanguageDir) throws IOException {
+  private void strj(boolean normalize, Path str, Path out, Collection<Path> paths, Path baseLanguageDir) throws IOException {
+    final PrivateOutput output = new PrivateOutput(out);
     
     /*
      * We can include as many paths as we want here, checking the
@@ -88,7 +115,7 @@ public class STRCommands {
      */
     List<String> cmd = new ArrayList<String>(Arrays.asList(new String[] {
         "-i", toWindowsPath(str.getAbsolutePath()),
-        "-o", toWindowsPath(out.getAbsolutePath()),
+        "-o", toWindowsPath(output.getPath().getAbsolutePath()),
 //        "-m", main,
         "-p", "sugarj",
         "--library",
@@ -111,61 +138,141 @@ public class STRCommands {
       }
     
     
-    final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    final String[] args = cmd.toArray(new String[cmd.size()]);
+    cancellation.run("strj", new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
 
-    // Strj requires a fresh context each time.
-    Context ctx = org.strategoxt.strj.strj.init();
-    try {
-      ctx.setIOAgent(strjIOAgent);
-      ctx.invokeStrategyCLI(main_strj_0_0.instance, "strj", cmd.toArray(new String[cmd.size()]));
-    }
-    catch (StrategoExit e) {
-      if (e.getValue() != 0)
-        throw new StrategoException("STRJ failed", e);
-    } finally {
-      if (log.size() > 0 && !log.toString().contains("Abstract syntax in"))
-        throw new StrategoException(log.toString());
-    }
+        try {
+          // Strj requires a fresh context each time. It is not pooled, so an aborted invocation leaves no context to discard.
+          Context ctx = org.strategoxt.strj.strj.init();
+          // do not start compiling once aborted while initializing the context
+          if (cancellation.isCancelled())
+            throw new InterruptedIOException("strj cancelled");
+          try {
+            ctx.setIOAgent(strjIOAgent);
+            ctx.invokeStrategyCLI(main_strj_0_0.instance, "strj", args);
+          }
+          catch (StrategoExit e) {
+            if (e.getValue() != 0)
+              throw new StrategoException("STRJ failed", e);
+          } finally {
+            if (log.size() > 0 && !log.toString().contains("Abstract syntax in"))
+              throw new StrategoException(log.toString());
+          }
+          output.publish();
+        } finally {
+          output.discard();
+        }
+        return null;
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        output.discard();
+      }
+    });
   }
   
   
-  public Path compile(Path str,
-                              Set<Path> dependentFiles,
-                              Path baseLanguageDir) throws IOException,
+  public Path compile(final Path str,
+                              final Set<Path> dependentFiles,
+                              final Path baseLanguageDir) throws IOException,
                                                           InvalidParseTableException,
                                                           TokenExpectedException,
                                                           BadTokenException,
                                                           SGLRException {
-    ModuleKey key = getModuleKeyForAssimilation(str, dependentFiles);
+    final ModuleKey key = getModuleKeyForAssimilation(str, dependentFiles, baseLanguageDir);
     Path prog = lookupAssimilationInCache(strCache, key);
-    StrategoException error = null;
     
     if (prog == null) {
-      try {
-        prog = generateAssimilator(key, str, environment.getIncludePath(), baseLanguageDir);
-      } catch (StrategoException e) {
-        prog = FAILED_COMPILATION_PATH;
-        error = e;
-      } finally {
-        if (prog != null && FileCommands.exists(prog) && !FileCommands.isEmptyFile(prog))
-          prog = cacheAssimilator(strCache, key, prog, environment);
-      }
+      Callable<Path> generate = new Callable<Path>() {
+        @Override
+        public Path call() throws IOException {
+          // another driver may have generated the assimilator while we computed the key
+          Path prog = lookupAssimilationInCache(strCache, key);
+          if (prog != null)
+            return prog;
+          
+          ModuleKey bundleKey = null;
+          if (environment.getArtifactExportDir() != null || ArtifactBundles.hasBundles(environment.getIncludePath())) {
+            bundleKey = ArtifactBundles.relocatableKey(key.body, dependentFiles, environment.getIncludePath(), STR_FILE_PATTERN);
+            Path bundled = ArtifactBundles.lookup(bundleKey, environment.getIncludePath());
+            if (bundled != null)
+              return cacheAssimilator(strCache, key, bundled, environment);
+          }
+          
+          Path out = scratch.newFile("ctree");
+          
+          StrategoException error = null;
+          try {
+            prog = generateAssimilator(key, str, out, environment.getIncludePath(), baseLanguageDir);
+          } catch (StrategoException e) {
+            prog = FAILED_COMPILATION_PATH;
+            error = e;
+          } finally {
+            if (error == null && environment.getArtifactExportDir() != null && prog != null && FileCommands.exists(prog) && !FileCommands.isEmptyFile(prog))
+              ArtifactBundles.export(bundleKey, prog, environment.getArtifactExportDir());
+            if (prog != null && FileCommands.exists(prog) && !FileCommands.isEmptyFile(prog))
+              prog = cacheAssimilator(strCache, key, prog, environment);
+            // drop partial output of failed or cancelled runs
+            if (!out.equals(prog))
+              scratch.release(out);
+          }
 
-      if (error != null)
-        throw error;
+          if (error != null)
+            throw error;
+          return prog;
+        }
+      };
+      prog = computeOnce(strCache, key, generate, cancellation);
     }
         
     return prog;
   }
+  
+  /**
+   * Runs `generate` unless another driver is already generating
+   * the assimilator for an equal key, in which case we wait for its result.
+   * If the other driver was cancelled, we generate the assimilator ourselves.
+   */
+  private static Path computeOnce(ModuleKeyCache<Path> strCache, ModuleKey key, Callable<Path> generate, Cancellation cancellation) throws IOException {
+    while (true) {
+      try {
+        if (strCache == null)
+          return generate.call();
+        return strCache.computeOnce(key, generate);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof InterruptedIOException && !cancellation.isCancelled())
+          continue;
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new RuntimeException("assimilator generation failed", cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for assimilator");
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("assimilator generation failed", e);
+      }
+    }
+  }
     
-  private static Path generateAssimilator(ModuleKey key,
+  private Path generateAssimilator(ModuleKey key,
                                           Path str,
+                                          Path prog,
                                           List<Path> paths,
                                           Path baseLanguageDir) throws IOException {
     boolean success = false;
     log.beginTask("Generating", "Generate the assimilator", Log.TRANSFORM);
     try {
-      Path prog = FileCommands.newTempFile("ctree");
       log.log("calling STRJ", Log.TRANSFORM);
       strj(true, str, prog, paths, baseLanguageDir);
       success = FileCommands.exists(prog);
@@ -180,7 +287,7 @@ public class STRCommands {
       return prog;
     
 
-    log.beginTask("Caching", "Cache assimilator", Log.CACHING);
+    boolean task = StructuredLog.beginTask("Caching", Log.CACHING, "Cache assimilator");
     try {
       Path cacheProg = environment.createCachePath(prog.getFile().getName());
       if (FileCommands.exists(prog))
@@ -191,10 +298,10 @@ public class STRCommands {
       Path oldProg = strCache.putGet(key, cacheProg);
 //      FileCommands.delete(oldProg);
 
-      log.log("Cache Location: " + cacheProg, Log.CACHING);
+      StructuredLog.log(Log.CACHING, "cached assimilator", "location", cacheProg);
       return cacheProg;
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
   
@@ -204,46 +311,130 @@ public class STRCommands {
     
     Path result = null;
     
-    log.beginTask("Searching", "Search assimilator in cache", Log.CACHING);
+    boolean task = StructuredLog.beginTask("Searching", Log.CACHING, "Search assimilator in cache");
     try {
       result = strCache.get(key);
       
       if (result == null || !result.getFile().exists())
         return null;
 
-      log.log("Cache location: '" + result + "'", Log.CACHING);
+      StructuredLog.log(Log.CACHING, "found in cache", "location", result);
       
       return result;
     } finally {
-      log.endTask(result != null);
+      StructuredLog.endTask(task, result != null);
     }
   }
 
 
-  private ModuleKey getModuleKeyForAssimilation(Path str, Set<Path> dependentFiles) throws IOException, InvalidParseTableException, TokenExpectedException, BadTokenException, SGLRException {
-    log.beginTask("Generating", "Generate module key for current assimilation", Log.CACHING);
+  /**
+   * @return the abstract syntax of a Stratego module `module` with declarations `decls`.
+   */
+  public static IStrategoTerm makeModule(String module, IStrategoTerm decls) {
+    return ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("Module", 2), ATermCommands.factory.makeString(module), decls);
+  }
+  
+  /**
+   * @return the abstract syntax of a Stratego module `module` that only imports `imports`,
+   *   as produced by parsing the module.
+   */
+  public static IStrategoTerm makeCompoundModule(String module, List<String> imports) {
+    List<IStrategoTerm> importTerms = new ArrayList<IStrategoTerm>();
+    for (String imp : imports)
+      importTerms.add(ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("Import", 1), ATermCommands.factory.makeString(imp)));
+    
+    IStrategoTerm importDecl = ATermCommands.factory.makeAppl(ATermCommands.factory.makeConstructor("Imports", 1), ATermCommands.factory.makeList(importTerms));
+    return makeModule(module, ATermCommands.factory.makeList(importDecl));
+  }
+
+  private ModuleKey getModuleKeyForAssimilation(Path str, Set<Path> dependentFiles, Path baseLanguageDir) throws IOException, InvalidParseTableException, TokenExpectedException, BadTokenException, SGLRException {
+    boolean task = StructuredLog.beginTask("Generating", Log.CACHING, "Generate module key for current assimilation");
     try {
-      IStrategoTerm aterm = (IStrategoTerm) strParser.parse(FileCommands.readFileAsString(str), str.getAbsolutePath(), "StrategoModule");
+      IStrategoTerm aterm = BinaryTerms.readSidecar(str);
+      if (aterm == null)
+        aterm = (IStrategoTerm) strParser.parse(FileCommands.readFileAsString(str), str.getAbsolutePath(), "StrategoModule");
 
       aterm = ATermCommands.getApplicationSubterm(aterm, "Module", 1);
 
-      return new ModuleKey(environment.getStamper(), dependentFiles, environment.getRoot(), STR_FILE_PATTERN, aterm);
+      return new ModuleKey(environment.getStamper(), dependentFiles, environment.getRoot(), Collections.singletonMap(ModuleKey.PLUGIN_BASE, baseLanguageDir), STR_FILE_PATTERN, aterm);
     } catch (Exception e) {
       throw new SGLRException(strParser, "could not parse STR file " + str, e);
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
     
   }
   
+  /**
+   * Loads `ctree` into `interp`, unless the same content of `ctree` is
+   * the program that was loaded into `interp` last.
+   * 
+   * @param ctreeDigest the content digest of `ctree`, computed if null.
+   */
+  private static void load(Path ctree, String ctreeDigest, HybridInterpreter interp) throws IOException, InterpreterException {
+    String program = ctreeDigest == null ? Digests.digest(ctree) : ctreeDigest;
+    if (!program.equals(loadedPrograms.get(interp))) {
+      loadedPrograms.remove(interp);
+      interp.load(ctree.getAbsolutePath());
+      loadedPrograms.put(interp, program);
+    }
+    interp.init();
+  }
+  
   public static IStrategoTerm execute(String strategyName, Path ctree, IStrategoTerm in, HybridInterpreter interp) throws IOException {
     return execute(strategyName, new IStrategoTerm[0], ctree, in, interp);
   }
   
+  public static IStrategoTerm execute(String strategyName, Path ctree, IStrategoTerm in, HybridInterpreter interp, Cancellation cancellation) throws IOException {
+    return execute(strategyName, new IStrategoTerm[0], ctree, null, in, interp, cancellation);
+  }
+  
+  public static IStrategoTerm execute(String strategyName, IStrategoTerm[] targs, Path ctree, IStrategoTerm in, HybridInterpreter interp, Cancellation cancellation) throws IOException {
+    return execute(strategyName, targs, ctree, null, in, interp, cancellation);
+  }
+  
+  /**
+   * Executes the strategy such that `cancellation` aborts it. Transformations
+   * call back into the driver and thus run on the calling thread.
+   * 
+   * @param ctreeDigest the content digest of `ctree`, computed if null.
+   * @throws InterruptedIOException if the execution was aborted.
+   */
+  public static IStrategoTerm execute(String strategyName, IStrategoTerm[] targs, Path ctree, String ctreeDigest, IStrategoTerm in, final HybridInterpreter interp, Cancellation cancellation) throws IOException {
+    if (cancellation == null)
+      return execute(strategyName, targs, ctree, ctreeDigest, in, interp);
+
+    Future<?> watch = cancellation.watch(new Runnable() {
+      @Override
+      public void run() {
+        interp.asyncCancel();
+      }
+    });
+    try {
+      return execute(strategyName, targs, ctree, ctreeDigest, in, interp);
+    } catch (RuntimeException e) {
+      if (!cancellation.isCancelled())
+        throw e;
+      // the aborted program may be in an inconsistent state
+      loadedPrograms.remove(interp);
+      throw new InterruptedIOException("transformation " + strategyName + " cancelled");
+    } finally {
+      watch.cancel(false);
+    }
+  }
+  
   public static IStrategoTerm execute(String strategyName, IStrategoTerm[] targs, Path ctree, IStrategoTerm in, HybridInterpreter interp) throws IOException {
+    return execute(strategyName, targs, ctree, null, in, interp);
+  }
+  
+  /**
+   * @param ctreeDigest the content digest of `ctree`, computed if null.
+   */
+  public static IStrategoTerm execute(String strategyName, IStrategoTerm[] targs, Path ctree, String ctreeDigest, IStrategoTerm in, HybridInterpreter interp) throws IOException {
+    if (ctreeDigest == null)
+      ctreeDigest = Digests.digest(ctree);
     try {
-      interp.load(ctree.getAbsolutePath());
-      interp.init();
+      load(ctree, ctreeDigest, interp);
     } catch (InterpreterException e) {
       throw new StrategoException("Transformation failed: " + (e.getCause() == null ? e : e.getCause()).getMessage(), e);
     }
@@ -256,13 +447,19 @@ public class STRCommands {
       throw new IllegalArgumentException("Could not find strategy " + strategyName);
 
     Strategy strategy = new CallT(def.getName(), new Strategy[]{}, targs);
-    return execute(strategy, ctree, in, interp);
+    return execute(strategy, ctree, ctreeDigest, in, interp);
   }
   
   public static IStrategoTerm execute(Strategy strategy, Path ctree, IStrategoTerm in, HybridInterpreter interp) throws IOException {
+    return execute(strategy, ctree, null, in, interp);
+  }
+  
+  /**
+   * @param ctreeDigest the content digest of `ctree`, computed if null.
+   */
+  public static IStrategoTerm execute(Strategy strategy, Path ctree, String ctreeDigest, IStrategoTerm in, HybridInterpreter interp) throws IOException {
     try {
-      interp.load(ctree.getAbsolutePath());
-      interp.init();
+      load(ctree, ctreeDigest, interp);
       
       interp.setCurrent(in);
       
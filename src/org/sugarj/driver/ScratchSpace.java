@@ -0,0 +1,154 @@
+package org.sugarj.driver;
+
+import static org.sugarj.common.Log.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sugarj.common.Log;
+import org.sugarj.common.path.AbsolutePath;
+import org.sugarj.common.path.Path;
+import org.sugarj.driver.caching.BinaryTerms;
+
+/**
+ * Directory for intermediate files of a single driver run, such as
+ * compound grammar and transformation modules, packed grammars, and
+ * parse tables and assimilators before they are cached. The directory is a fresh subdirectory of the
+ * environment's temporary directory, which may reside on a tmpfs.
+ *
+ * All scratch files are deleted when the scratch space is closed, except
+ * for files that are explicitly kept beyond the driver run.
+ *
+ * The peak size of the scratch space is tracked by the sizes of the files
+ * this class handed out, measured when they are released or kept, and when
+ * the scratch space is closed.
+ */
+public class ScratchSpace {
+
+  private final File dir;
+
+  /*
+   * live files and their last measured sizes
+   */
+  private final Map<File, Long> files = new LinkedHashMap<File, Long>();
+
+  private long bytes;
+  private long peakBytes;
+  private int fileCount;
+  private boolean closed;
+
+  public ScratchSpace(Path parent) throws IOException {
+    File parentDir = parent.getFile();
+    parentDir.mkdirs();
+    this.dir = Files.createTempDirectory(parentDir.toPath(), "sugarj-scratch-").toFile();
+  }
+
+  /**
+   * @return a new, empty file in the scratch space with a unique name.
+   */
+  public synchronized Path newFile(String extension) throws IOException {
+    if (closed)
+      throw new IllegalStateException("scratch space already closed: " + dir);
+
+    File f = File.createTempFile("sugarj", extension.isEmpty() ? "" : "." + extension, dir);
+    files.put(f, 0L);
+    fileCount++;
+    return new AbsolutePath(f.getAbsolutePath());
+  }
+
+  /**
+   * @return true iff `file` was created in this scratch space and not released yet.
+   */
+  public synchronized boolean contains(Path file) {
+    return file != null && files.containsKey(file.getFile().getAbsoluteFile());
+  }
+
+  /**
+   * Deletes a file of this scratch space together with its binary sidecar
+   * (see {@link BinaryTerms}), if any. Other files are left untouched.
+   */
+  public synchronized void release(Path file) {
+    if (!contains(file))
+      return;
+
+    File f = file.getFile().getAbsoluteFile();
+    File sidecar = BinaryTerms.sidecarOf(file).getFile();
+    measure(f, f.length() + sidecar.length());
+    bytes -= files.remove(f);
+    f.delete();
+    sidecar.delete();
+  }
+
+  /**
+   * Moves a file of this scratch space out of it, such that it survives
+   * closing the scratch space. Other files are returned unchanged.
+   *
+   * @return the new location of `file`, in the parent of the scratch space.
+   */
+  public synchronized Path keep(Path file) throws IOException {
+    if (!contains(file))
+      return file;
+
+    File f = file.getFile().getAbsoluteFile();
+    measure(f, f.length());
+    String ext = extension(f);
+    File kept = File.createTempFile("sugarj", ext.isEmpty() ? null : "." + ext, dir.getParentFile());
+    Files.move(f.toPath(), kept.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    bytes -= files.remove(f);
+    return new AbsolutePath(kept.getAbsolutePath());
+  }
+
+  /**
+   * Deletes the scratch space and all files in it.
+   */
+  public synchronized void close() {
+    if (closed)
+      return;
+
+    for (File f : new ArrayList<File>(files.keySet()))
+      measure(f, f.length());
+    closed = true;
+    files.clear();
+    bytes = 0;
+    if (!delete(dir))
+      log.logErr("could not delete scratch space " + dir, Log.DETAIL);
+    log.log("scratch space used " + fileCount + " files, peak " + peakBytes + " bytes", Log.CACHING);
+  }
+
+  public synchronized long getPeakBytes() {
+    return peakBytes;
+  }
+
+  public Path getDirectory() {
+    return new AbsolutePath(dir.getAbsolutePath());
+  }
+
+  /*
+   * records the current size of live file `f`
+   */
+  private void measure(File f, long size) {
+    Long old = files.put(f, size);
+    bytes += size - (old == null ? 0 : old);
+    if (bytes > peakBytes)
+      peakBytes = bytes;
+  }
+
+  private static String extension(File f) {
+    String name = f.getName();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1);
+  }
+
+  private static boolean delete(File f) {
+    File[] kids = f.listFiles();
+    if (kids != null)
+      for (File kid : kids)
+        delete(kid);
+    return f.delete();
+  }
+}
@@ -1,7 +1,9 @@
 package org.sugarj.driver;
 
 import org.strategoxt.lang.Context;
+import org.sugarj.common.Log;
 import org.sugarj.driver.caching.StrategoContextCache;
+import org.sugarj.driver.caching.StrategoContextCache.Retention;
 
 /**
  * Management of Stratego contexts.
@@ -12,7 +14,67 @@ public class SugarJContexts {
   private SugarJContexts() {
   }
 
-  private static StrategoContextCache ctxCache = new StrategoContextCache();
+  /*
+   * idle contexts kept per context type; configurable via
+   * org.sugarj.contexts.min_idle, org.sugarj.contexts.max_idle,
+   * org.sugarj.contexts.retention (STRONG or SOFT), and
+   * org.sugarj.contexts.thread_affine. Shared by all compiler sessions,
+   * since contexts are handed out exclusively and carry no build state
+   * between uses.
+   */
+  private static StrategoContextCache ctxCache;
+
+  /*
+   * warm up contexts on background threads when the driver starts;
+   * can be disabled via org.sugarj.contexts.warm_up=false
+   */
+  private static final boolean warmUp = !"false".equals(System.getProperty("org.sugarj.contexts.warm_up"));
+  static {
+    int minIdle = Math.max(0, intProperty("org.sugarj.contexts.min_idle", 1));
+    int maxIdle = Math.max(minIdle, intProperty("org.sugarj.contexts.max_idle", 4));
+    Retention retention = Retention.SOFT;
+    String retentionName = System.getProperty("org.sugarj.contexts.retention");
+    if (retentionName != null)
+      try {
+        retention = Retention.valueOf(retentionName.trim());
+      } catch (IllegalArgumentException e) {
+        Log.log.log("ignoring malformed org.sugarj.contexts.retention=" + retentionName, Log.CACHING);
+      }
+    boolean threadAffine = Boolean.getBoolean("org.sugarj.contexts.thread_affine");
+    
+    ctxCache = new StrategoContextCache(minIdle, maxIdle, retention, threadAffine);
+  }
+  
+  private static int intProperty(String name, int defaultValue) {
+    String value = System.getProperty(name);
+    if (value == null)
+      return defaultValue;
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      Log.log.log("ignoring malformed " + name + "=" + value, Log.CACHING);
+      return defaultValue;
+    }
+  }
+
+  public static void logStatistics() {
+    Log.log.log(ctxCache.toString(), Log.CACHING);
+  }
+
+  /**
+   * Initializes one context of each type used by the driver in the background,
+   * such that the first acquisition does not pay for loading and initializing
+   * the corresponding strategy library.
+   */
+  public static void warmUp() {
+    if (!warmUp)
+      return;
+    ctxCache.warmUp(org.sugarj.driver.transformations.extraction.extraction.class);
+    ctxCache.warmUp(org.sugarj.driver.transformations.renaming.renaming.class);
+    if (SDFCommands.USE_PERMISSIVE_GRAMMARS)
+      ctxCache.warmUp(org.strategoxt.permissivegrammars.make_permissive.class);
+    ctxCache.warmUp(org.strategoxt.stratego_xtc.stratego_xtc.class);
+  }
 
   public static void releaseContext(Context ctx) {
     if (ctx == null)
@@ -20,6 +82,12 @@ public class SugarJContexts {
     ctxCache.releaseContext(ctx);
   }
 
+  public static void discardContext(Context ctx) {
+    if (ctx == null)
+      return;
+    ctxCache.discardContext(ctx);
+  }
+
   public static Context makePermissiveContext() {
     return ctxCache.acquireContext(org.strategoxt.permissivegrammars.make_permissive.class);
   }
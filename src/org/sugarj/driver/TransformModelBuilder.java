@@ -15,6 +15,10 @@ import org.sugarj.common.FileCommands;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.path.RelativePath;
 import org.sugarj.driver.Renaming.FromTo;
+import org.sugarj.driver.caching.Digests;
+import org.sugarj.driver.caching.GeneratedFiles;
+import org.sugarj.driver.caching.ModelCache;
+import org.sugarj.driver.caching.TransitiveFileRequirements;
 
 public class TransformModelBuilder extends Builder<TransformModelBuilder.Input, IStrategoTerm> {
 
@@ -78,36 +82,38 @@ public class TransformModelBuilder extends Builder<TransformModelBuilder.Input,
     requireBuild(input.modelReq);
     requireBuild(input.transformationReq);
 
-    IStrategoTerm modelTerm = ATermCommands.atermFromFile(input.modelPath.getAbsolutePath());
+    IStrategoTerm modelTerm = ModelCache.read(input.modelPath, defaultStamper().stampOf(input.modelPath));
     String modelName = FileCommands.dropExtension(input.modelPath.getRelativePath());
     String transName = FileCommands.dropExtension(input.transformationPath.getRelativePath());
     String strat = "main-" + transName.replace('/', '_');
 
-    Path trans = input.strCommands.compile(input.transformationPath, ModuleSystemCommands.getTransitivelyAffectedFileStamps(getBuildUnit()).keySet(), input.baseLanguageDir);
+    Path trans = input.strCommands.compile(input.transformationPath, new TransitiveFileRequirements(getBuildUnit()).paths(), input.baseLanguageDir);
+    String transDigest = Digests.digest(trans);
 
     IStrategoTerm transformedTerm;
     try {
       input.importCommands.setCurrentModelName(modelName);
       input.importCommands.setCurrentTransName(transName);
-      transformedTerm = STRCommands.execute(strat, trans, modelTerm, input.strInterpreter);
+      transformedTerm = STRCommands.execute(strat, new IStrategoTerm[0], trans, transDigest, modelTerm, input.strInterpreter);
     } finally {
       input.importCommands.setCurrentModelName(null);
       input.importCommands.setCurrentTransName(null);
     }
 
     // local renaming of model name according to transformation
-    IStrategoTerm renamedTransformedModel = renameModel(transformedTerm, input.modelPath, input.outputPath, trans, input.toplevelDecl);
+    IStrategoTerm renamedTransformedModel = renameModel(transformedTerm, input.modelPath, input.outputPath, trans, transDigest, input.toplevelDecl);
     String transformedModelText = ATermCommands.atermToString(renamedTransformedModel);
-    FileCommands.writeToFile(input.outputPath, transformedModelText);
+    GeneratedFiles.write(input.outputPath, transformedModelText);
     provide(input.outputPath);
+    provide(ModelCache.written(renamedTransformedModel, input.outputPath, defaultStamper().stampOf(input.outputPath)));
     return renamedTransformedModel;
   }
 
-  private IStrategoTerm renameModel(IStrategoTerm transformedModel, RelativePath modelPath, RelativePath transformedModelPath, Path compiledTrans, IStrategoTerm toplevelDecl) throws IOException {
+  private IStrategoTerm renameModel(IStrategoTerm transformedModel, RelativePath modelPath, RelativePath transformedModelPath, Path compiledTrans, String compiledTransDigest, IStrategoTerm toplevelDecl) throws IOException {
     FromTo renaming = new FromTo(modelPath, transformedModelPath);
     IStrategoTerm map = Renaming.makeRenamingHashtable(Collections.singletonList(renaming));
     IStrategoTerm[] targs = new IStrategoTerm[] { map };
-    return STRCommands.execute("apply-renamings", targs, compiledTrans, transformedModel, input.strInterpreter);
+    return STRCommands.execute("apply-renamings", targs, compiledTrans, compiledTransDigest, transformedModel, input.strInterpreter);
   }
 
 }
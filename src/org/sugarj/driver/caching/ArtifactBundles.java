@@ -0,0 +1,170 @@
+package org.sugarj.driver.caching;
+
+import static org.sugarj.common.Log.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.sugarj.cleardep.stamp.FileHashStamper;
+import org.sugarj.cleardep.stamp.Stamp;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.AbsolutePath;
+import org.sugarj.common.path.Path;
+
+/**
+ * Parse tables and assimilators that are bundled with a library on the
+ * include path, so that consumers of the library do not need to generate
+ * them again.
+ *
+ * A bundle resides in directory `META-INF/sugarj` of an include-path
+ * directory. It consists of the artifacts and an index from relocatable
+ * module keys to artifact names. Relocatable keys refer to dependencies
+ * relative to the include-path directory that contains them and stamp
+ * dependencies by content, such that they do not depend on the location
+ * of a library or the time at which it was built.
+ */
+public class ArtifactBundles {
+
+  public static final String BUNDLE_DIR = "META-INF/sugarj";
+  public static final String INDEX_FILE = "artifacts.index";
+
+  private static final Map<String, Index> indexes = new ConcurrentHashMap<String, Index>();
+
+  private static class Index {
+    final long lastModified;
+    final Map<ModuleKey, String> artifacts;
+
+    Index(long lastModified, Map<ModuleKey, String> artifacts) {
+      this.lastModified = lastModified;
+      this.artifacts = artifacts;
+    }
+  }
+
+  private ArtifactBundles() {
+  }
+
+  /**
+   * @return true iff some directory of `includePath` contains a bundle.
+   */
+  public static boolean hasBundles(List<Path> includePath) {
+    for (Path dir : includePath)
+      if (indexFile(dir).exists())
+        return true;
+    return false;
+  }
+
+  /**
+   * @return the relocatable variant of a module key with the given body and dependencies.
+   */
+  public static ModuleKey relocatableKey(String body, Set<Path> dependentFiles, List<Path> includePath, Pattern pat) throws IOException {
+    Map<String, Stamp> deps = new HashMap<String, Stamp>();
+    for (Path p : dependentFiles)
+      if ((pat == null || pat.matcher(p.getAbsolutePath()).matches()) && FileCommands.exists(p))
+        deps.put(relocate(p, includePath), FileHashStamper.instance.stampOf(p));
+    return new ModuleKey(deps, body);
+  }
+
+  private static String relocate(Path p, List<Path> includePath) {
+    String file = p.getFile().getAbsolutePath();
+    for (Path dir : includePath) {
+      String prefix = dir.getFile().getAbsolutePath() + File.separator;
+      if (file.startsWith(prefix))
+        return file.substring(prefix.length()).replace(File.separatorChar, '/');
+    }
+    return file;
+  }
+
+  /**
+   * @return a bundled artifact for `key` or null.
+   */
+  public static Path lookup(ModuleKey key, List<Path> includePath) {
+    key.doGet();
+    for (Path dir : includePath) {
+      Index index = index(dir);
+      if (index == null)
+        continue;
+
+      String name = index.artifacts.get(key);
+      if (name != null) {
+        File artifact = new File(new File(dir.getFile(), BUNDLE_DIR), name);
+        if (artifact.exists()) {
+          log.log("use bundled artifact " + artifact, Log.CACHING);
+          return new AbsolutePath(artifact.getAbsolutePath());
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds `artifact` to the bundle in `dir`.
+   */
+  public static synchronized void export(ModuleKey key, Path artifact, Path dir) throws IOException {
+    File bundleDir = new File(dir.getFile(), BUNDLE_DIR);
+    bundleDir.mkdirs();
+
+    Index index = index(dir);
+    Map<ModuleKey, String> artifacts = index == null ? new HashMap<ModuleKey, String>() : new HashMap<ModuleKey, String>(index.artifacts);
+
+    key.doPut();
+    String name = artifact.getFile().getName();
+    FileCommands.copyFile(artifact, new AbsolutePath(new File(bundleDir, name).getAbsolutePath()));
+    String old = artifacts.put(key, name);
+    if (old != null && !old.equals(name) && !artifacts.containsValue(old))
+      new File(bundleDir, old).delete();
+
+    File indexFile = indexFile(dir);
+    ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+    try {
+      out.writeObject(artifacts);
+    } finally {
+      out.close();
+    }
+    indexes.put(indexFile.getAbsolutePath(), new Index(indexFile.lastModified(), artifacts));
+    log.log("bundled artifact " + name + " in " + bundleDir, Log.CACHING);
+  }
+
+  private static Index index(Path dir) {
+    File indexFile = indexFile(dir);
+    if (!indexFile.exists())
+      return null;
+
+    Index index = indexes.get(indexFile.getAbsolutePath());
+    if (index != null && index.lastModified == indexFile.lastModified())
+      return index;
+
+    try {
+      ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        @SuppressWarnings("unchecked")
+        Map<ModuleKey, String> artifacts = (Map<ModuleKey, String>) in.readObject();
+        index = new Index(indexFile.lastModified(), artifacts);
+      } finally {
+        in.close();
+      }
+    } catch (IOException | ClassNotFoundException e) {
+      log.logErr("could not read artifact index " + indexFile + ": " + e.getMessage(), Log.CACHING);
+      index = new Index(indexFile.lastModified(), new HashMap<ModuleKey, String>());
+    }
+
+    indexes.put(indexFile.getAbsolutePath(), index);
+    return index;
+  }
+
+  private static File indexFile(Path dir) {
+    return new File(new File(dir.getFile(), BUNDLE_DIR), INDEX_FILE);
+  }
+}
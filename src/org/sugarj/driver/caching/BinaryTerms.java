@@ -0,0 +1,156 @@
+package org.sugarj.driver.caching;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.terms.io.binary.SAFWriter;
+import org.spoofax.terms.io.binary.TermReader;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.Path;
+
+/**
+ * Binary encoding of terms in the streamable ATerm format (SAF),
+ * which maximally shares subterms. Binary term files are read into
+ * memory in one go and written atomically, such that readers never
+ * see a partially written file and no file stays mapped or locked.
+ *
+ * A sidecar `f.bin` of term file `f` starts with the content digest
+ * of `f` at the time the sidecar was written, followed by the binary
+ * term. Sidecars are only read if they still match `f`.
+ */
+public class BinaryTerms {
+
+  public static final String SIDECAR_EXTENSION = "bin";
+
+  private BinaryTerms() {
+  }
+
+  public static Path sidecarOf(Path textFile) {
+    return FileCommands.addExtension(textFile, SIDECAR_EXTENSION);
+  }
+
+  /**
+   * Writes the binary sidecar of `textFile`, which must already be written and represent `term`.
+   *
+   * @return the sidecar.
+   */
+  public static Path writeSidecar(IStrategoTerm term, Path textFile) throws IOException {
+    return writeSidecar(toBytes(term), Digests.digest(textFile), textFile);
+  }
+
+  /**
+   * Writes the binary sidecar of `textFile` with content digest `digest`.
+   *
+   * @param binary the binary encoding of the term represented by `textFile`.
+   * @return the sidecar.
+   */
+  public static Path writeSidecar(byte[] binary, String digest, Path textFile) throws IOException {
+    Path sidecar = sidecarOf(textFile);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(binary.length + 64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(digest);
+    out.write(binary);
+    out.close();
+
+    writeAtomically(bytes.toByteArray(), sidecar.getFile());
+    return sidecar;
+  }
+
+  /**
+   * @return true iff the sidecar of `textFile` exists and matches content digest `digest`.
+   */
+  public static boolean isSidecarCurrent(Path textFile, String digest) throws IOException {
+    return readSidecarBinary(textFile, digest) != null;
+  }
+
+  /**
+   * @return the term stored in the sidecar of `textFile`,
+   *   or null if there is no sidecar or it does not match `textFile`.
+   */
+  public static IStrategoTerm readSidecar(Path textFile) throws IOException {
+    if (!FileCommands.exists(sidecarOf(textFile)))
+      return null;
+    byte[] binary = readSidecarBinary(textFile, Digests.digest(textFile));
+    return binary == null ? null : fromBytes(binary);
+  }
+
+  /**
+   * @return the binary term stored in the sidecar of `textFile`,
+   *   or null if there is no sidecar or it does not match content digest `digest`.
+   */
+  public static byte[] readSidecarBinary(Path textFile, String digest) throws IOException {
+    Path sidecar = sidecarOf(textFile);
+    if (!FileCommands.exists(sidecar))
+      return null;
+
+    byte[] content = Files.readAllBytes(sidecar.getFile().toPath());
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+    try {
+      if (!in.readUTF().equals(digest))
+        return null;
+      return Arrays.copyOfRange(content, content.length - in.available(), content.length);
+    } catch (IOException e) {
+      // truncated or foreign sidecar
+      return null;
+    }
+  }
+
+  /**
+   * Writes `term` to `file` in binary form, without header.
+   */
+  public static void write(IStrategoTerm term, File file) throws IOException {
+    writeAtomically(toBytes(term), file);
+  }
+
+  /**
+   * Reads a term written by {@link #write(IStrategoTerm, File)}.
+   */
+  public static IStrategoTerm read(File file) throws IOException {
+    return fromBytes(Files.readAllBytes(file.toPath()));
+  }
+
+  public static byte[] toBytes(IStrategoTerm term) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SAFWriter.writeTermToSAFStream(term, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * @return a fresh term decoded from `binary`.
+   */
+  public static IStrategoTerm fromBytes(byte[] binary) throws IOException {
+    return new TermReader(ATermCommands.factory).parseFromStream(new ByteArrayInputStream(binary));
+  }
+
+  private static void writeAtomically(byte[] content, File file) throws IOException {
+    File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    try {
+      FileOutputStream out = new FileOutputStream(tmp);
+      try {
+        out.write(content);
+      } finally {
+        out.close();
+      }
+
+      try {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      tmp.delete();
+    }
+  }
+}
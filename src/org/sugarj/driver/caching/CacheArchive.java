@@ -0,0 +1,200 @@
+package org.sugarj.driver.caching;
+
+import static org.sugarj.common.Log.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+
+/**
+ * Packs a cache directory into a self-contained archive and unpacks such
+ * archives into a cache directory, for example to seed the cache of a
+ * fresh checkout.
+ *
+ * An archive contains all files of the cache directory and a manifest
+ * with the SHA-1 digest of each file. Unpacking verifies all files against
+ * the manifest before any file of the cache directory is replaced.
+ *
+ * Cached artifacts are rebased onto the cache directory they are loaded
+ * from, and module keys name their dependencies relative to the project
+ * root, the standard library, or the base-language plugin (see
+ * {@link ModuleKey}). Entries whose keys refer to dependencies elsewhere
+ * by absolute path are only reused where these dependencies reside at
+ * the same location.
+ */
+public class CacheArchive {
+
+  public static final String MANIFEST = "META-INF/sugarj-cache.sha1";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private CacheArchive() {
+  }
+
+  public static void pack(Path cacheDir, Path archive) throws IOException {
+    Map<String, File> files = new LinkedHashMap<String, File>();
+    collect(cacheDir.getFile(), "", files);
+
+    StringBuilder manifest = new StringBuilder();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive.getFile()));
+    try {
+      byte[] buf = new byte[8192];
+      for (Entry<String, File> e : files.entrySet()) {
+        MessageDigest md = sha1();
+        out.putNextEntry(new ZipEntry(e.getKey()));
+        InputStream in = new DigestInputStream(new FileInputStream(e.getValue()), md);
+        try {
+          copy(in, out, buf);
+        } finally {
+          in.close();
+        }
+        out.closeEntry();
+        manifest.append(hex(md.digest())).append(' ').append(e.getKey()).append('\n');
+      }
+
+      out.putNextEntry(new ZipEntry(MANIFEST));
+      Writer w = new OutputStreamWriter(out, UTF8);
+      w.write(manifest.toString());
+      w.flush();
+      out.closeEntry();
+    } finally {
+      out.close();
+    }
+
+    log.log("packed " + files.size() + " cache files into " + archive, Log.CACHING);
+  }
+
+  /**
+   * Unpacks `archive` into `cacheDir`, replacing existing files.
+   *
+   * @throws IOException if the archive has no manifest or a file does not match the manifest.
+   */
+  public static void unpack(Path archive, Path cacheDir) throws IOException {
+    File dir = cacheDir.getFile();
+    File staging = new File(dir, ".import-" + System.nanoTime());
+
+    ZipFile zip = new ZipFile(archive.getFile());
+    try {
+      Map<String, String> manifest = readManifest(zip);
+
+      byte[] buf = new byte[8192];
+      for (Entry<String, String> e : manifest.entrySet()) {
+        String name = e.getKey();
+        if (name.startsWith("/") || name.contains(".."))
+          throw new IOException("illegal cache entry " + name + " in " + archive);
+
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null)
+          throw new IOException("cache entry " + name + " missing in " + archive);
+
+        File target = new File(staging, name);
+        target.getParentFile().mkdirs();
+        MessageDigest md = sha1();
+        InputStream in = new DigestInputStream(zip.getInputStream(entry), md);
+        OutputStream out = new FileOutputStream(target);
+        try {
+          copy(in, out, buf);
+        } finally {
+          in.close();
+          out.close();
+        }
+
+        if (!hex(md.digest()).equals(e.getValue()))
+          throw new IOException("cache entry " + name + " in " + archive + " does not match its digest");
+      }
+
+      for (String name : manifest.keySet()) {
+        File target = new File(dir, name);
+        target.getParentFile().mkdirs();
+        Files.move(new File(staging, name).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      log.log("unpacked " + manifest.size() + " cache files into " + cacheDir, Log.CACHING);
+    } finally {
+      zip.close();
+      delete(staging);
+    }
+  }
+
+  private static Map<String, String> readManifest(ZipFile zip) throws IOException {
+    ZipEntry entry = zip.getEntry(MANIFEST);
+    if (entry == null)
+      throw new IOException("not a cache archive: " + zip.getName());
+
+    Map<String, String> manifest = new LinkedHashMap<String, String>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), UTF8));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int sep = line.indexOf(' ');
+        if (sep > 0)
+          manifest.put(line.substring(sep + 1), line.substring(0, sep));
+      }
+    } finally {
+      in.close();
+    }
+    return manifest;
+  }
+
+  private static void collect(File f, String prefix, Map<String, File> files) {
+    File[] kids = f.listFiles();
+    if (kids == null)
+      return;
+    for (File kid : kids)
+      if (kid.isDirectory())
+        collect(kid, prefix + kid.getName() + "/", files);
+      else if (!kid.getName().contains(".tmp") && !prefix.startsWith(".import-"))
+        files.put(prefix + kid.getName(), kid);
+  }
+
+  private static void copy(InputStream in, OutputStream out, byte[] buf) throws IOException {
+    int n;
+    while ((n = in.read(buf)) >= 0)
+      out.write(buf, 0, n);
+  }
+
+  private static void delete(File f) {
+    File[] kids = f.listFiles();
+    if (kids != null)
+      for (File kid : kids)
+        delete(kid);
+    f.delete();
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not available", e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return sb.toString();
+  }
+}
@@ -0,0 +1,71 @@
+package org.sugarj.driver.caching;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.path.Path;
+
+/**
+ * SHA-1 digests of strings, terms, and files.
+ *
+ * File digests are always computed from the file's content, because
+ * modification time and length do not reliably identify a file's content.
+ */
+public class Digests {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private Digests() {
+  }
+
+  public static String digest(String s) {
+    return digest(s.getBytes(UTF8));
+  }
+
+  public static String digest(byte[] bytes) {
+    return hex(sha1().digest(bytes));
+  }
+
+  /**
+   * @return digest of the textual representation of `term`, ignoring attachments.
+   */
+  public static String digest(IStrategoTerm term) {
+    return digest(ATermCommands.atermToString(term));
+  }
+
+  public static String digest(Path file) throws IOException {
+    MessageDigest md = sha1();
+    InputStream in = new FileInputStream(file.getFile());
+    try {
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) >= 0)
+        md.update(buf, 0, n);
+    } finally {
+      in.close();
+    }
+
+    return hex(md.digest());
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not available", e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes)
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return sb.toString();
+  }
+}
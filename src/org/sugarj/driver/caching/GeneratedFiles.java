@@ -0,0 +1,37 @@
+package org.sugarj.driver.caching;
+
+import static org.sugarj.common.Log.log;
+
+import java.io.IOException;
+
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+
+/**
+ * Writes generated files only if their content changes, such that
+ * unchanged artifacts keep their modification time and stamps.
+ *
+ * The existing file is always compared by content, because modification
+ * time and length do not reliably identify a file's content.
+ */
+public class GeneratedFiles {
+
+  private GeneratedFiles() {
+  }
+
+  /**
+   * Writes `content` to `file` unless `file` already has this content.
+   *
+   * @return true iff the file was written.
+   */
+  public static boolean write(Path file, String content) throws IOException {
+    if (FileCommands.exists(file) && content.equals(FileCommands.readFileAsString(file))) {
+      log.log("generated file unchanged: " + file, Log.DETAIL);
+      return false;
+    }
+
+    FileCommands.writeToFile(file, content);
+    return true;
+  }
+}
@@ -0,0 +1,87 @@
+package org.sugarj.driver.caching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Process-wide index of the entries of archives (jars) on the include path.
+ *
+ * Each archive is opened once and the names of its entries are kept in a
+ * hash set. An index is rebuilt when the archive's modification time or
+ * length changes. Sharing the index among compiler sessions is safe,
+ * since it only mirrors the archives on disk.
+ */
+public class IncludePathIndex {
+
+  private static final ConcurrentMap<String, Entries> index = new ConcurrentHashMap<String, Entries>();
+
+  private static class Entries {
+    final long lastModified;
+    final long length;
+    final Set<String> names;
+
+    Entries(long lastModified, long length, Set<String> names) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.names = names;
+    }
+  }
+
+  private IncludePathIndex() {
+  }
+
+  /**
+   * @param archive a jar or zip file.
+   * @param entry path of the entry relative to the archive root, using '/' as separator.
+   * @return true iff the archive contains the entry.
+   */
+  public static boolean contains(File archive, String entry) {
+    return entries(archive).contains(entry.replace(File.separatorChar, '/'));
+  }
+
+  private static Set<String> entries(File archive) {
+    String key = archive.getAbsolutePath();
+    long lastModified = archive.lastModified();
+    long length = archive.length();
+
+    Entries e = index.get(key);
+    if (e != null && e.lastModified == lastModified && e.length == length)
+      return e.names;
+
+    e = new Entries(lastModified, length, readEntries(archive));
+    index.put(key, e);
+    return e.names;
+  }
+
+  private static Set<String> readEntries(File archive) {
+    if (!archive.isFile())
+      return Collections.emptySet();
+
+    Set<String> names = new HashSet<String>();
+    ZipFile zip = null;
+    try {
+      zip = new ZipFile(archive);
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements())
+        names.add(entries.nextElement().getName());
+    } catch (IOException e) {
+      // not an archive
+      return Collections.emptySet();
+    } finally {
+      if (zip != null)
+        try {
+          zip.close();
+        } catch (IOException e) {
+        }
+    }
+    return names;
+  }
+}
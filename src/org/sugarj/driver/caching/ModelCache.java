@@ -0,0 +1,122 @@
+package org.sugarj.driver.caching;
+
+import static org.sugarj.common.Log.log;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermAttachment;
+import org.sugarj.cleardep.stamp.Stamp;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.Log;
+import org.sugarj.common.path.Path;
+
+/**
+ * Process-wide cache of loaded model terms. Sharing it among compiler
+ * sessions is safe, since every hit is validated against the stamp of the
+ * model file.
+ *
+ * Entries are keyed by the absolute path of the model file and are valid
+ * as long as the build stamp of the file does not change. Callers pass the
+ * stamp their build already computed, such that a hit neither reads nor
+ * decodes the file. All readers share the same term. Terms are immutable
+ * except for their attachments, which are stripped on every read, such that
+ * consumers do not observe each other's attachments. Entries are only softly
+ * referenced. On a miss, the model is read from its binary sidecar if
+ * possible, and parsed from its textual form otherwise.
+ */
+public class ModelCache {
+
+  private static final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+  /*
+   * incremented whenever a model or generated file is written; writes of
+   * other sessions only invalidate memoized resolutions more often
+   */
+  private static final AtomicLong outputGeneration = new AtomicLong();
+
+  private static class Entry {
+    final Stamp stamp;
+    final SoftReference<IStrategoTerm> term;
+
+    Entry(Stamp stamp, IStrategoTerm term) {
+      this.stamp = stamp;
+      this.term = new SoftReference<IStrategoTerm>(term);
+    }
+  }
+
+  private ModelCache() {
+  }
+
+  /**
+   * @param stamp the current build stamp of `model`.
+   * @return the model term stored in the given file, shared with other readers and without attachments.
+   */
+  public static IStrategoTerm read(Path model, Stamp stamp) throws IOException {
+    Entry e = cache.get(model.getAbsolutePath());
+    if (e != null && e.stamp.equals(stamp)) {
+      IStrategoTerm term = e.term.get();
+      if (term != null)
+        return stripAttachments(term);
+    }
+
+    byte[] binary = BinaryTerms.readSidecarBinary(model, Digests.digest(model));
+    IStrategoTerm term;
+    if (binary == null)
+      term = ATermCommands.atermFromFile(model.getAbsolutePath());
+    else {
+      log.log("read binary model " + model, Log.CACHING);
+      term = BinaryTerms.fromBytes(binary);
+    }
+
+    cache.put(model.getAbsolutePath(), new Entry(stamp, term));
+    return stripAttachments(term);
+  }
+
+  /**
+   * Registers a model that has just been written to the given file in textual form
+   * and writes the model's binary sidecar unless it is current.
+   *
+   * @param stamp the build stamp of `model` after writing.
+   * @return the sidecar.
+   */
+  public static Path written(IStrategoTerm term, Path model, Stamp stamp) throws IOException {
+    outputsWritten();
+    String digest = Digests.digest(model);
+    byte[] binary = BinaryTerms.toBytes(term);
+    // the writer may still attach to its own term
+    cache.put(model.getAbsolutePath(), new Entry(stamp, BinaryTerms.fromBytes(binary)));
+    if (BinaryTerms.isSidecarCurrent(model, digest))
+      return BinaryTerms.sidecarOf(model);
+    return BinaryTerms.writeSidecar(binary, digest, model);
+  }
+
+  /**
+   * Records that models or generated files were written, which may shadow
+   * earlier resolutions of imports, see {@link #getOutputGeneration()}.
+   */
+  public static void outputsWritten() {
+    outputGeneration.incrementAndGet();
+  }
+
+  /**
+   * @return a counter that changes whenever models or generated files are written.
+   *   Memoized resolutions of imports are valid only as long as the counter stays the same.
+   */
+  public static long getOutputGeneration() {
+    return outputGeneration.get();
+  }
+
+  private static IStrategoTerm stripAttachments(IStrategoTerm term) {
+    ITermAttachment attachment;
+    while ((attachment = term.getAttachment(null)) != null)
+      term.removeAttachment(attachment.getAttachmentType());
+    for (IStrategoTerm kid : term.getAllSubterms())
+      stripAttachments(kid);
+    return term;
+  }
+}
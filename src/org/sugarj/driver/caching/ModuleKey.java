@@ -1,13 +1,17 @@
 package org.sugarj.driver.caching;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import org.spoofax.interpreter.terms.IStrategoTerm;
@@ -15,8 +19,10 @@ import org.sugarj.cleardep.stamp.Stamp;
 import org.sugarj.cleardep.stamp.Stamper;
 import org.sugarj.common.ATermCommands;
 import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.AbsolutePath;
 import org.sugarj.common.path.Path;
 import org.sugarj.common.path.RelativePath;
+import org.sugarj.stdlib.StdLib;
 
 /**
  * The key of some SDF module as needed for caching.
@@ -25,11 +31,21 @@ import org.sugarj.common.path.RelativePath;
  * referenced modules is stored here. This way we do not need
  * to store a complete grammar, as represented by SDF definitions. 
  * 
+ * Referenced modules are identified relative to the project root, the
+ * standard library ({@link #STDLIB_BASE}), or another named base such as
+ * the base-language plugin ({@link #PLUGIN_BASE}), such that keys do not
+ * change when these are installed elsewhere. Other modules are identified
+ * by absolute path.
+ * 
  * @author Sebastian Erdweg <seba at informatik uni-marburg de>
  *
  */
 public class ModuleKey implements Externalizable {
 
+  public static final String STDLIB_BASE = "${stdlib}";
+  public static final String PLUGIN_BASE = "${plugin}";
+  public static final String PARSED_BASE = "${parsed}";
+  
   private boolean checkGet;
   
   public Map<String, Stamp> moduleDeps;
@@ -46,20 +62,40 @@ public class ModuleKey implements Externalizable {
   }
   
   public ModuleKey(Stamper stamper, Set<Path> dependentFiles, Path projectBasePath, Pattern pat, IStrategoTerm module) throws IOException {
+    this(stamper, dependentFiles, projectBasePath, Collections.<String, Path>emptyMap(), pat, module);
+  }
+  
+  public ModuleKey(Stamper stamper, Set<Path> dependentFiles, Path projectBasePath, Map<String, Path> namedBases, Pattern pat, IStrategoTerm module) throws IOException {
     this.moduleDeps = new HashMap<>();
     
     this.body = ATermCommands.atermToString(module);
     
     for (Path p : dependentFiles)
-      if ((pat == null || pat.matcher(p.getAbsolutePath()).matches()) && FileCommands.exists(p)) {
-        RelativePath relPath = FileCommands.getRelativePath(projectBasePath, p);
-        String cachePath;
-        if (relPath == null)
-          cachePath = p.getAbsolutePath();
-        else
-          cachePath = relPath.getRelativePath();
-        moduleDeps.put(cachePath, stamper.stampOf(p));
-      }
+      if ((pat == null || pat.matcher(p.getAbsolutePath()).matches()) && FileCommands.exists(p))
+        moduleDeps.put(cachePath(p, projectBasePath, namedBases), stamper.stampOf(p));
+  }
+  
+  /**
+   * @param namedBases directories by the name that replaces them in module keys.
+   * @return the name of `p` in module keys: relative to the project root if
+   *   possible, otherwise relative to a named base, otherwise absolute.
+   */
+  public static String cachePath(Path p, Path projectBasePath, Map<String, Path> namedBases) {
+    RelativePath relPath = projectBasePath == null ? null : FileCommands.getRelativePath(projectBasePath, p);
+    if (relPath != null)
+      return relPath.getRelativePath();
+    
+    relPath = FileCommands.getRelativePath(new AbsolutePath(StdLib.stdLibDir.getAbsolutePath()), p);
+    if (relPath != null)
+      return STDLIB_BASE + "/" + relPath.getRelativePath();
+    
+    for (Entry<String, Path> base : namedBases.entrySet()) {
+      relPath = base.getValue() == null ? null : FileCommands.getRelativePath(base.getValue(), p);
+      if (relPath != null)
+        return base.getKey() + "/" + relPath.getRelativePath();
+    }
+    
+    return p.getAbsolutePath();
   }
   
   public boolean equals(Object o) {
@@ -100,6 +136,21 @@ public class ModuleKey implements Externalizable {
     out.writeObject(body);
   }
 
+  /**
+   * @return a digest of this key that is stable across runs.
+   */
+  public String digest() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(body);
+    for (Entry<String, Stamp> entry : new TreeMap<>(moduleDeps).entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(entry.getValue());
+    }
+    out.close();
+    return Digests.digest(bytes.toByteArray());
+  }
+
   void doGet() {
     this.checkGet = true;
   }
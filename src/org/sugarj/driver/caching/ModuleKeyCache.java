@@ -1,26 +1,44 @@
 package org.sugarj.driver.caching;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 
 /**
+ * Concurrent cache from module keys to generated artifacts.
+ *
+ * Reads do not block each other. Computations of missing entries
+ * are single-flight: while a value for some key is being computed,
+ * other requesters of an equal key wait for that computation instead
+ * of repeating it.
+ *
  * @author Sebastian Erdweg <seba at informatik uni-marburg de>
  */
 public class ModuleKeyCache<V extends Serializable> implements Serializable {
-  private static final long serialVersionUID = 7946929629107155889L;
-  
-  private final Object lock;
-  private final Map<ModuleKey, V> cache;
-  
-  public ModuleKeyCache(Object lock) {
-    this.lock = lock;
-    cache = new HashMap<ModuleKey, V>();
+  private static final long serialVersionUID = -3129463573820714587L;
+
+  private final ConcurrentMap<ModuleKey, V> cache;
+
+  /**
+   * Computations currently in flight, keyed with get semantics.
+   */
+  private transient ConcurrentMap<ModuleKey, FutureTask<V>> inFlight;
+
+  public ModuleKeyCache() {
+    cache = new ConcurrentHashMap<ModuleKey, V>();
+    inFlight = new ConcurrentHashMap<ModuleKey, FutureTask<V>>();
   }
-  
+
   public void put(ModuleKey k, V v) {
-    synchronized (lock) {
+    synchronized (cache) {
       k.doPut();
       cache.remove(k);
       cache.put(k, v);
@@ -29,19 +47,54 @@ public class ModuleKeyCache<V extends Serializable> implements Serializable {
   }
 
   public V putGet(ModuleKey k, V v) {
-    synchronized (lock) {
+    synchronized (cache) {
       k.doPut();
-      V old = cache.get(k);
-      cache.remove(k);
+      V old = cache.remove(k);
       cache.put(k, v);
+      k.doGet();
       return old;
     }
   }
 
+  /**
+   * @return a snapshot of the entries of this cache.
+   */
+  public Map<ModuleKey, V> entries() {
+    return new HashMap<ModuleKey, V>(cache);
+  }
+
   public V get(ModuleKey k) {
-    synchronized (lock) {
+    k.doGet();
+    return cache.get(k);
+  }
+
+  /**
+   * Runs the given computation for key `k` unless a computation for an
+   * equal key is already running. In that case, waits for the running
+   * computation and returns its result instead.
+   *
+   * The computation is responsible for storing its result in this cache.
+   *
+   * @throws ExecutionException if the (possibly foreign) computation failed.
+   */
+  public V computeOnce(ModuleKey k, Callable<V> computation) throws ExecutionException, InterruptedException {
+    k.doGet();
+    FutureTask<V> task = new FutureTask<V>(computation);
+    FutureTask<V> running = inFlight.putIfAbsent(k, task);
+    if (running != null)
+      return running.get();
+
+    try {
+      task.run();
+      return task.get();
+    } finally {
+      inFlight.remove(k, task);
       k.doGet();
-      return cache.get(k);
     }
   }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    inFlight = new ConcurrentHashMap<ModuleKey, FutureTask<V>>();
+  }
 }
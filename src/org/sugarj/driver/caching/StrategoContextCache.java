@@ -1,82 +1,328 @@
 package org.sugarj.driver.caching;
 
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.strategoxt.lang.Context;
-import org.sugarj.common.util.Pair;
 
 /**
  * Manages instances of org.strategoxt.lang.Context to enable
  *   reuse and exclusive access.
- * 
+ *
+ * For each actual context type, the cache keeps a pool of idle contexts.
+ * The first `minIdle` idle contexts are retained strongly, further idle
+ * contexts up to `maxIdle` are retained according to the retention policy,
+ * and any idle context beyond that is dropped. Acquiring and releasing
+ * contexts does not lock.
+ *
+ * With thread affinity, an acquisition prefers the idle context that its
+ * thread released last, if that context is still pooled. Affine contexts
+ * are pooled like any other, so they count against the idle bounds.
+ *
+ * Contexts can be warmed up on a background thread ahead of their first
+ * use. An acquisition that finds no idle context waits for a pending
+ * warm-up of the same type rather than initializing another context.
+ *
  * @author seba
  */
 public class StrategoContextCache {
 
+  public static enum Retention { STRONG, SOFT }
+
+  private final int minIdle;
+  private final int maxIdle;
+  private final Retention retention;
+  private final boolean threadAffine;
+
+  private final ConcurrentMap<Class<?>, Pool> pools = new ConcurrentHashMap<Class<?>, Pool>();
+
   /**
-   * Class represents the actual type of the context,
-   * first List denotes currently used contexts,
-   * second List denotes currently unused contexts.
+   * Currently used contexts and the pool they belong to.
+   */
+  private final ConcurrentMap<Context, Pool> inUse = new ConcurrentHashMap<Context, Pool>();
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong initNanos = new AtomicLong();
+
+  /*
+   * initializes contexts of this cache ahead of their first use
    */
-  private final Map<Class<?>, Pair<? extends List<Context>, ? extends List<WeakReference<Context>>>> cache
-    = new HashMap<Class<?>, Pair<? extends List<Context>,? extends List<WeakReference<Context>>>>();
-  
-  private final Map<Context, Class<?>> ctxToInit = new HashMap<Context, Class<?>>();
-  
+  private final ExecutorService warmUpExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "sugarj-context-warm-up");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  public StrategoContextCache() {
+    this(1, 4, Retention.SOFT, false);
+  }
+
+  public StrategoContextCache(int minIdle, int maxIdle, Retention retention, boolean threadAffine) {
+    if (minIdle < 0 || maxIdle < minIdle)
+      throw new IllegalArgumentException("Illegal idle bounds " + minIdle + ", " + maxIdle);
+    this.minIdle = minIdle;
+    this.maxIdle = maxIdle;
+    this.retention = retention;
+    this.threadAffine = threadAffine;
+  }
+
   /**
    * Retrieves a free context from the cache or generates a new one.
-   * 
+   *
    * @param purpose
    * @return a context of the given actual type.
    */
-  public synchronized Context acquireContext(Class<?> initType) {
-    Pair<? extends List<Context>,? extends List<WeakReference<Context>>> p = cache.get(initType);
-    if (p == null) {
-      p = Pair.create(new ArrayList<Context>(), new ArrayList<WeakReference<Context>>());
-      cache.put(initType, p);
+  public Context acquireContext(Class<?> initType) {
+    Pool p = pool(initType);
+
+    Context fresh = p.poll();
+    if (fresh != null)
+      reused.incrementAndGet();
+    else {
+      fresh = p.takeWarmedUp();
+      if (fresh == null)
+        fresh = timedInit(initType);
     }
-    
-    Context fresh = null;
-    while (fresh == null && !p.b.isEmpty())
-      fresh = p.b.remove(0).get();
-    
-    if (fresh == null)
-      try {
-        fresh = (Context) initType.getMethod("init").invoke(initType);
-      } catch (IllegalAccessException e) {
-        throw new IllegalArgumentException("Illegal actual type " + initType, e);
-      } catch (IllegalArgumentException e) {
-        throw new IllegalArgumentException("Illegal actual type " + initType, e);
-      } catch (InvocationTargetException e) {
-        throw new IllegalArgumentException("Illegal actual type " + initType, e);
-      } catch (NoSuchMethodException e) {
-        throw new IllegalArgumentException("Illegal actual type " + initType, e);
-      } catch (SecurityException e) {
-        throw new IllegalArgumentException("Illegal actual type " + initType, e);
-      }
-    
-    p.a.add(fresh);
-    ctxToInit.put(fresh, initType);
-    
+
+    inUse.put(fresh, p);
     return fresh;
   }
-  
+
+  /**
+   * Initializes a context of the given actual type on a background thread,
+   * unless a context of that type has been warmed up before or is idle.
+   */
+  public void warmUp(final Class<?> initType) {
+    Pool p = pool(initType);
+    synchronized (p) {
+      if (p.warmedUp || !p.isEmpty())
+        return;
+      p.warmedUp = true;
+      p.warmUp = new FutureTask<Context>(new Callable<Context>() {
+        @Override
+        public Context call() {
+          return init(initType);
+        }
+      });
+      warmUpExecutor.execute(p.warmUp);
+    }
+  }
+
   /**
    * Releases a previously acquired context.
    */
-  public synchronized void releaseContext(Context ctx) {
-    Class<?> initType = ctxToInit.remove(ctx);
-    
-    Pair<? extends List<Context>,? extends List<WeakReference<Context>>> p = cache.get(initType);
-    if (p == null || !p.a.contains(ctx))
-      throw new IllegalArgumentException("unknown context from initializer " + initType);
-    
-    p.a.remove(ctx);
-    p.b.add(new WeakReference<Context>(ctx));
+  public void releaseContext(Context ctx) {
+    Pool p = inUse.remove(ctx);
+    if (p == null)
+      throw new IllegalArgumentException("unknown context " + ctx);
+
+    p.offer(ctx);
+  }
+
+  /**
+   * Forgets a previously acquired context that must not be reused,
+   * for example because an invocation using it was aborted.
+   */
+  public void discardContext(Context ctx) {
+    if (inUse.remove(ctx) == null)
+      throw new IllegalArgumentException("unknown context " + ctx);
+  }
+
+  /**
+   * @return number of contexts created by this cache so far.
+   */
+  public long getCreatedCount() {
+    return created.get();
+  }
+
+  /**
+   * @return number of acquisitions served by an idle context.
+   */
+  public long getReusedCount() {
+    return reused.get();
+  }
+
+  /**
+   * @return total time spent waiting for the initialization of new contexts (in nanoseconds).
+   */
+  public long getInitNanos() {
+    return initNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return "contexts created: " + created.get() +
+           ", reused: " + reused.get() +
+           ", initialization time: " + (initNanos.get() / 1000000) + "ms";
+  }
+
+  private Pool pool(Class<?> initType) {
+    Pool p = pools.get(initType);
+    if (p == null) {
+      Pool newPool = new Pool();
+      p = pools.putIfAbsent(initType, newPool);
+      if (p == null)
+        p = newPool;
+    }
+    return p;
+  }
+
+  private Context timedInit(Class<?> initType) {
+    long start = System.nanoTime();
+    try {
+      return init(initType);
+    } finally {
+      initNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  private Context init(Class<?> initType) {
+    try {
+      Context ctx = (Context) initType.getMethod("init").invoke(initType);
+      created.incrementAndGet();
+      return ctx;
+    } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
+      throw new IllegalArgumentException("Illegal actual type " + initType, e);
+    }
+  }
+
+  /**
+   * Idle contexts of a single actual type.
+   */
+  private class Pool {
+    private final Queue<Context> core = new ConcurrentLinkedQueue<Context>();
+    private final AtomicInteger coreSize = new AtomicInteger();
+
+    /**
+     * Contains either contexts or soft references to contexts.
+     */
+    private final Queue<Object> extra = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger extraSize = new AtomicInteger();
+
+    /**
+     * Context released last by the current thread, which may have been dropped or taken by another thread since.
+     */
+    private final ThreadLocal<WeakReference<Context>> affine = new ThreadLocal<WeakReference<Context>>();
+
+    /**
+     * Pending or completed warm-up whose context has not been acquired yet.
+     */
+    private FutureTask<Context> warmUp;
+    private boolean warmedUp;
+
+    boolean isEmpty() {
+      return coreSize.get() == 0 && extraSize.get() == 0;
+    }
+
+    /**
+     * @return the context of this pool's warm-up, waiting for it if necessary,
+     *   or null if there is no warm-up or it failed.
+     */
+    Context takeWarmedUp() {
+      FutureTask<Context> task;
+      synchronized (this) {
+        task = warmUp;
+        warmUp = null;
+      }
+      if (task == null)
+        return null;
+
+      long start = System.nanoTime();
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        return null;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      } finally {
+        initNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+
+    Context poll() {
+      if (threadAffine) {
+        WeakReference<Context> ref = affine.get();
+        affine.remove();
+        Context ctx = ref == null ? null : ref.get();
+        if (ctx != null && take(ctx))
+          return ctx;
+      }
+
+      Context ctx = core.poll();
+      if (ctx != null) {
+        coreSize.decrementAndGet();
+        return ctx;
+      }
+
+      Object o;
+      while ((o = extra.poll()) != null) {
+        extraSize.decrementAndGet();
+        ctx = deref(o);
+        if (ctx != null)
+          return ctx;
+      }
+
+      return null;
+    }
+
+    void offer(Context ctx) {
+      if (threadAffine)
+        affine.set(new WeakReference<Context>(ctx));
+
+      if (coreSize.incrementAndGet() <= minIdle) {
+        core.offer(ctx);
+        return;
+      }
+      coreSize.decrementAndGet();
+
+      if (extraSize.incrementAndGet() <= maxIdle - minIdle) {
+        extra.offer(retention == Retention.STRONG ? ctx : new SoftReference<Context>(ctx));
+        return;
+      }
+      extraSize.decrementAndGet();
+    }
+
+    /**
+     * Removes `ctx` from the idle contexts.
+     *
+     * @return true iff `ctx` was idle.
+     */
+    private boolean take(Context ctx) {
+      if (core.remove(ctx)) {
+        coreSize.decrementAndGet();
+        return true;
+      }
+      for (Object o : extra)
+        if (deref(o) == ctx && extra.remove(o)) {
+          extraSize.decrementAndGet();
+          return true;
+        }
+      return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Context deref(Object o) {
+      if (o instanceof SoftReference)
+        return ((SoftReference<Context>) o).get();
+      return (Context) o;
+    }
   }
 }
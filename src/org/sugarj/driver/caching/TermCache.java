@@ -0,0 +1,123 @@
+package org.sugarj.driver.caching;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.sugarj.common.FileCommands;
+import org.sugarj.common.path.Path;
+
+/**
+ * Persistent cache from digests to terms, stored as one binary
+ * term file per entry in a directory.
+ *
+ * The cache holds at most a fixed number of entries. When it grows
+ * beyond that, the least recently used entries are evicted.
+ */
+public class TermCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  private static final String EXTENSION = ".saf";
+
+  private final Path dir;
+  private final int maxEntries;
+
+  /*
+   * approximate, other drivers may use the same directory
+   */
+  private int entries;
+
+  private int hits;
+  private int misses;
+
+  public TermCache(Path dir) throws IOException {
+    this(dir, DEFAULT_MAX_ENTRIES);
+  }
+
+  public TermCache(Path dir, int maxEntries) throws IOException {
+    this.dir = dir;
+    this.maxEntries = maxEntries;
+    FileCommands.createDir(dir);
+    this.entries = entryFiles().length;
+  }
+
+  /**
+   * @return the cached term or null.
+   */
+  public IStrategoTerm get(String key) {
+    File f = file(key);
+    if (f.exists())
+      try {
+        IStrategoTerm term = BinaryTerms.read(f);
+        f.setLastModified(System.currentTimeMillis());
+        hits++;
+        return term;
+      } catch (IOException e) {
+        // corrupt entry, recompute
+        f.delete();
+      }
+
+    misses++;
+    return null;
+  }
+
+  public void put(String key, IStrategoTerm term) throws IOException {
+    File f = file(key);
+    boolean added = !f.exists();
+    BinaryTerms.write(term, f);
+    if (added && ++entries > maxEntries)
+      evict();
+  }
+
+  public int getHits() {
+    return hits;
+  }
+
+  public int getMisses() {
+    return misses;
+  }
+
+  /*
+   * evicts down to three quarters of the capacity, such that we do not evict on every put
+   */
+  private void evict() {
+    File[] files = entryFiles();
+    final long[] lastUsed = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    for (int i = 0; i < files.length; i++) {
+      lastUsed[i] = files[i].lastModified();
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i, Integer j) {
+        return Long.compare(lastUsed[i], lastUsed[j]);
+      }
+    });
+
+    int keep = maxEntries * 3 / 4;
+    int remaining = files.length;
+    for (int i = 0; i < order.length && remaining > keep; i++)
+      if (files[order[i]].delete())
+        remaining--;
+    entries = remaining;
+  }
+
+  private File[] entryFiles() {
+    File[] files = dir.getFile().listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File f) {
+        return f.getName().endsWith(EXTENSION);
+      }
+    });
+    return files == null ? new File[0] : files;
+  }
+
+  private File file(String key) {
+    return new File(dir.getFile(), key + EXTENSION);
+  }
+}
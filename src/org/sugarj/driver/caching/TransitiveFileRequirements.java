@@ -0,0 +1,176 @@
+package org.sugarj.driver.caching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.sugarj.cleardep.BuildUnit;
+import org.sugarj.cleardep.BuildUnit.ModuleVisitor;
+import org.sugarj.cleardep.dependency.FileRequirement;
+import org.sugarj.cleardep.dependency.Requirement;
+import org.sugarj.cleardep.stamp.Stamp;
+import org.sugarj.common.path.Path;
+
+/**
+ * Incrementally maintained view of the files a build unit transitively
+ * depends on, for use during a single build of the unit.
+ *
+ * File requirements added to the unit itself are merged into the view
+ * directly. The transitive build graph is walked again when the unit
+ * acquires a new requirement on another build unit or loses a requirement,
+ * and when the requirements of any unit reached by the last walk change,
+ * as they do for units still in progress, such as the members of an
+ * import cycle.
+ */
+public class TransitiveFileRequirements {
+
+  private final BuildUnit<?> unit;
+
+  private final Map<Path, Stamp> deps = new HashMap<>();
+  private final Set<Path> depsView = Collections.unmodifiableSet(deps.keySet());
+
+  /*
+   * requirements reflected in `deps`, null before the first update
+   */
+  private Set<Requirement> seenRequirements;
+  private Set<FileRequirement> seenGenerated;
+
+  /*
+   * requirements of the other units reached by the last walk, as of that walk
+   */
+  private final Map<BuildUnit<?>, Snapshot> reached = new IdentityHashMap<>();
+
+  /*
+   * incremented whenever `deps` changes
+   */
+  private long version;
+
+  private static class Snapshot {
+    final List<Requirement> requirements;
+    final List<FileRequirement> generated;
+
+    Snapshot(BuildUnit<?> unit) {
+      this.requirements = new ArrayList<Requirement>(unit.getRequirements());
+      this.generated = new ArrayList<FileRequirement>(unit.getGeneratedFileRequirements());
+    }
+
+    boolean isCurrent(BuildUnit<?> unit) {
+      return requirements.equals(new ArrayList<Requirement>(unit.getRequirements())) &&
+             generated.equals(new ArrayList<FileRequirement>(unit.getGeneratedFileRequirements()));
+    }
+  }
+
+  public TransitiveFileRequirements(BuildUnit<?> unit) {
+    this.unit = unit;
+  }
+
+  /**
+   * @return read-only view of the transitively required files, up to date with the unit.
+   */
+  public synchronized Set<Path> paths() {
+    update();
+    return depsView;
+  }
+
+  /**
+   * @return a counter that changes whenever the transitively required files change.
+   */
+  public synchronized long version() {
+    update();
+    return version;
+  }
+
+  /**
+   * @return a copy of the transitively required files and their stamps.
+   */
+  public synchronized Map<Path, Stamp> stamps() {
+    update();
+    return new HashMap<>(deps);
+  }
+
+  private void update() {
+    Set<Requirement> reqs = new HashSet<>(unit.getRequirements());
+    Set<FileRequirement> generated = new HashSet<>(unit.getGeneratedFileRequirements());
+    boolean unchanged = reqs.equals(seenRequirements) && generated.equals(seenGenerated);
+
+    // replaced or removed requirements may have contributed any file
+    boolean walk = seenRequirements == null || !reqs.containsAll(seenRequirements) || !generated.containsAll(seenGenerated);
+
+    if (!walk)
+      for (Entry<BuildUnit<?>, Snapshot> e : reached.entrySet())
+        if (!e.getValue().isCurrent(e.getKey())) {
+          walk = true;
+          break;
+        }
+
+    if (unchanged && !walk)
+      return;
+
+    if (!walk)
+      for (Requirement req : reqs) {
+        if (seenRequirements.contains(req))
+          continue;
+        if (req instanceof FileRequirement) {
+          FileRequirement freq = (FileRequirement) req;
+          deps.put(freq.path, freq.stamp);
+        }
+        else {
+          walk = true;
+          break;
+        }
+      }
+
+    if (walk)
+      walk();
+    else
+      for (FileRequirement freq : generated)
+        if (!seenGenerated.contains(freq))
+          deps.put(freq.path, freq.stamp);
+
+    seenRequirements = reqs;
+    seenGenerated = generated;
+    version++;
+  }
+
+  private void walk() {
+    deps.clear();
+    reached.clear();
+
+    unit.visit(new ModuleVisitor<Void>() {
+      @Override
+      public Void visit(BuildUnit<?> mod) {
+        for (FileRequirement freq : mod.getGeneratedFileRequirements())
+          deps.put(freq.path, freq.stamp);
+        for (Requirement req : mod.getRequirements())
+          if (req instanceof FileRequirement) {
+            FileRequirement freq = (FileRequirement) req;
+            deps.put(freq.path, freq.stamp);
+          }
+        if (mod != unit)
+          reached.put(mod, new Snapshot(mod));
+        return null;
+      }
+
+      @Override
+      public Void combine(Void v1, Void v2) {
+        return null;
+      }
+
+      @Override
+      public Void init() {
+        return null;
+      }
+
+      @Override
+      public boolean cancel(Void t) {
+        return false;
+      }
+    });
+  }
+}
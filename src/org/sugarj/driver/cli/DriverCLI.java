@@ -41,6 +41,7 @@ import org.sugarj.common.path.Path;
 import org.sugarj.driver.Result;
 import org.sugarj.driver.STRCommands;
 import org.sugarj.transformations.analysis.AnalysisDataInterop;
+import org.sugarj.util.StructuredLog;
 
 /**
  * @author Sebastian Erdweg <seba at informatik uni-marburg de>
@@ -122,7 +123,7 @@ public class DriverCLI {
 
     
     HybridInterpreter interpreter = new HybridInterpreter();
-    new AnalysisDataInterop().createInteropRegisterer().register(interpreter.getContext(), interpreter.getCompiledContext());
+    new AnalysisDataInterop().createInteropRegisterer().registerLazy(interpreter.getContext(), interpreter.getCompiledContext(), AnalysisDataInterop.class.getClassLoader());
     
     
     IStrategoTerm errorTree = STRCommands.execute("sugarj-analyze", res.getDesugaringsFile(), tuple, interpreter);
@@ -425,7 +426,7 @@ public class DriverCLI {
           level |= Log.ALWAYS;
         else 
           throw new CLIError("Unknown verbosity level " + option, options);
-      Log.log.setLoggingLevel(level);
+      StructuredLog.setLoggingLevel(level);
     }
   
     if (line.hasOption("silent-execution"))
@@ -459,6 +460,12 @@ public class DriverCLI {
     if (line.hasOption("cache"))
       environment.setCacheDir(pathArgument(line.getOptionValue("cache")));
   
+    if (line.hasOption("import-cache"))
+      environment.setCacheImportArchive(pathArgument(line.getOptionValue("import-cache")));
+    
+    if (line.hasOption("export-cache"))
+      environment.setCacheExportArchive(pathArgument(line.getOptionValue("export-cache")));
+  
     if (line.hasOption("gen-files"))
       environment.setBin(targetDir);
     else
@@ -470,6 +477,24 @@ public class DriverCLI {
     if (line.hasOption("no-checking"))
       environment.setNoChecking(true);
     
+    if (line.hasOption("parallel-imports"))
+      environment.setParallelImports(true);
+    
+    if (line.hasOption("memoize-desugarings"))
+      environment.setMemoizeDesugarings(true);
+    
+    if (line.hasOption("cache-parses"))
+      environment.setCacheParses(true);
+    
+    if (line.hasOption("batch-compilation"))
+      environment.setBatchCompilation(true);
+    
+    if (line.hasOption("export-artifacts"))
+      environment.setArtifactExportDir(pathArgument(line.getOptionValue("export-artifacts")));
+    
+    if (line.hasOption("tmp-dir"))
+      environment.setTmpDir(pathArgument(line.getOptionValue("tmp-dir")));
+    
     if (line.hasOption("dontTerminateJVM"))
       environment.setTerminateJVMAfterProcessing(false);
     
@@ -577,6 +602,18 @@ public class DriverCLI {
         false,
         "Specify the cache to be write-only.");
     
+    options.addOption(
+        null,
+        "import-cache",
+        true,
+        "Seed the cache from an archive created with --export-cache.");
+    
+    options.addOption(
+        null,
+        "export-cache",
+        true,
+        "Pack the cache into an archive after building.");
+    
     options.addOption(
         null,
         "gen-files",
@@ -595,6 +632,42 @@ public class DriverCLI {
         false,
         "Do not check resulting SDF and Stratego files.");
     
+    options.addOption(
+        null,
+        "parallel-imports",
+        false,
+        "Locate and load the modules of a block of imports concurrently.");
+    
+    options.addOption(
+        null,
+        "memoize-desugarings",
+        false,
+        "Reuse desugarings of unchanged declarations from the cache.");
+    
+    options.addOption(
+        null,
+        "cache-parses",
+        false,
+        "Reuse parse results of unchanged source files from the cache.");
+    
+    options.addOption(
+        null,
+        "batch-compilation",
+        false,
+        "Compile the generated files of all rebuilt modules in a single compiler run.");
+    
+    options.addOption(
+        null,
+        "export-artifacts",
+        true,
+        "Bundle generated parse tables and assimilators in the given library directory.");
+    
+    options.addOption(
+        null,
+        "tmp-dir",
+        true,
+        "Specify a directory for intermediate files, for example on a tmpfs.");
+    
     options.addOption(
         "l",
         "language",
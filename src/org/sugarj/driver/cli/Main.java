@@ -1,6 +1,7 @@
 package org.sugarj.driver.cli;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -19,6 +20,7 @@ import org.sugarj.driver.DriverInput;
 import org.sugarj.driver.Environment;
 import org.sugarj.driver.ModuleSystemCommands;
 import org.sugarj.driver.Result;
+import org.sugarj.driver.caching.CacheArchive;
 import org.sugarj.stdlib.StdLib;
 
 /**
@@ -38,6 +40,8 @@ public class Main {
     
     Set<RelativePath> allInputFiles = new HashSet<RelativePath>();
     
+    int exitCode = 0;
+    boolean success = false;
     try {
       String[] sources = DriverCLI.handleOptions(args, environment);
       
@@ -52,6 +56,9 @@ public class Main {
         allInputFiles.add(sourceLocation);
       }
       
+      if (environment.getCacheImportArchive() != null && environment.getCacheDir() != null)
+        CacheArchive.unpack(environment.getCacheImportArchive(), environment.getCacheDir());
+      
       IProgressMonitor monitor = new NullProgressMonitor();
       
       for (final RelativePath sourceFile : allInputFiles) {
@@ -63,33 +70,49 @@ public class Main {
         Result res = BuildManager.build(new DriverBuildRequest(input));
     
         DriverCLI.CLI_ExitValue returnValue = DriverCLI.processResultCLI(res, sourceFile, new File(".").getAbsolutePath());
-        switch (returnValue) {
-        case SUCCESS:
-          exit (0, environment);
-        case COMPILATION_ERROR:
-          exit (1, environment);
-        case DSL_ANALYSIS_ERROR:
-          exit (2, environment);
-        case DSL_ANALYSIS_WARNING:
-          exit (3, environment);
-        case DSL_ANALYSIS_NOTE:
-          exit (4, environment);
-        case FAILURE: 
-        default:
-          exit (100, environment);
-        }
+        // the first failing source file determines the exit code
+        if (exitCode == 0)
+          exitCode = exitCode(returnValue);
       }
       
+      success = true;
     } catch (Exception e) {
       e.printStackTrace();
-      exit(100, environment);
+      exitCode = 100;
     } catch (CLIError e) {
       Log.log.log(e.getMessage(), Log.ALWAYS);
       Log.log.log("", Log.ALWAYS);
       e.showUsage();
-      exit(1, environment);
+      exitCode = 1;
+    } finally {
+      if (success && environment.getCacheExportArchive() != null && environment.getCacheDir() != null)
+        try {
+          CacheArchive.pack(environment.getCacheDir(), environment.getCacheExportArchive());
+        } catch (IOException e) {
+          Log.log.logErr("could not pack cache archive: " + e.getMessage(), Log.ALWAYS);
+          if (exitCode == 0)
+            exitCode = 100;
+        }
+    }
+    exit(exitCode, environment);
+  }
+  
+  private static int exitCode(DriverCLI.CLI_ExitValue returnValue) {
+    switch (returnValue) {
+    case SUCCESS:
+      return 0;
+    case COMPILATION_ERROR:
+      return 1;
+    case DSL_ANALYSIS_ERROR:
+      return 2;
+    case DSL_ANALYSIS_WARNING:
+      return 3;
+    case DSL_ANALYSIS_NOTE:
+      return 4;
+    case FAILURE: 
+    default:
+      return 100;
     }
-    exit(0, environment);
   }
   
   // without running eclipse platform,
@@ -0,0 +1,135 @@
+package org.sugarj.driver.declprovider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.jsglr.client.imploder.IToken;
+import org.spoofax.jsglr.client.imploder.ITokenizer;
+import org.spoofax.jsglr.client.imploder.ImploderAttachment;
+import org.spoofax.terms.Term;
+import org.sugarj.common.ATermCommands;
+import org.sugarj.common.util.Pair;
+
+/**
+ * Encodes parse results of toplevel declarations together with their
+ * tokens and origin information, such that a decoded parse result
+ * continues the token stream exactly as the original parse did.
+ *
+ * An encoded parse result is a tuple of
+ *  - the parsed term without attachments,
+ *  - the number of consumed characters,
+ *  - the tokens created by the parse as (end offset, kind), relative to the start offset of the parse,
+ *  - for each subterm in pre-order, (left token, right token, sort) relative to the first created token, or () if the subterm had no origin.
+ */
+class CachedParses {
+
+  private CachedParses() {
+  }
+
+  /**
+   * @param firstToken index of the first token created by the parse.
+   * @param start offset at which the parse started.
+   * @return the encoded parse result or null if it cannot be encoded.
+   */
+  static IStrategoTerm encode(Pair<IStrategoTerm, Integer> parseResult, ITokenizer tokenizer, int firstToken, int start) {
+    List<IStrategoTerm> tokens = new ArrayList<>();
+    for (int i = firstToken; i < tokenizer.getTokenCount(); i++) {
+      IToken tok = tokenizer.getTokenAt(i);
+      tokens.add(ATermCommands.factory.makeTuple(
+          ATermCommands.factory.makeInt(tok.getEndOffset() - start),
+          ATermCommands.factory.makeInt(tok.getKind())));
+    }
+
+    List<IStrategoTerm> nodes = new ArrayList<>();
+    if (!encodeNodes(parseResult.a, tokenizer, firstToken, nodes))
+      return null;
+
+    return ATermCommands.factory.makeTuple(
+        parseResult.a,
+        ATermCommands.factory.makeInt(parseResult.b),
+        ATermCommands.makeList("Token", tokens),
+        ATermCommands.makeList("Node", nodes));
+  }
+
+  private static boolean encodeNodes(IStrategoTerm term, ITokenizer tokenizer, int firstToken, List<IStrategoTerm> nodes) {
+    ImploderAttachment origin = ImploderAttachment.get(term);
+    if (origin == null)
+      nodes.add(ATermCommands.factory.makeTuple());
+    else {
+      IToken left = origin.getLeftToken();
+      IToken right = origin.getRightToken();
+      if (left.getTokenizer() != tokenizer || right.getTokenizer() != tokenizer || left.getIndex() < firstToken || right.getIndex() < firstToken)
+        return false;
+
+      nodes.add(ATermCommands.factory.makeTuple(
+          ATermCommands.factory.makeInt(left.getIndex() - firstToken),
+          ATermCommands.factory.makeInt(right.getIndex() - firstToken),
+          ATermCommands.factory.makeString(origin.getSort() == null ? "" : origin.getSort())));
+    }
+
+    for (int i = 0; i < term.getSubtermCount(); i++)
+      if (!encodeNodes(term.getSubterm(i), tokenizer, firstToken, nodes))
+        return false;
+
+    return true;
+  }
+
+  /**
+   * Recreates the tokens of an encoded parse result in `tokenizer` and
+   * returns the parse result with origins pointing to these tokens.
+   */
+  static Pair<IStrategoTerm, Integer> decode(IStrategoTerm encoded, ITokenizer tokenizer, int start) {
+    int firstToken = tokenizer.getTokenCount();
+    for (IStrategoTerm tok : encoded.getSubterm(2).getAllSubterms())
+      tokenizer.makeToken(start + Term.asJavaInt(tok.getSubterm(0)), Term.asJavaInt(tok.getSubterm(1)), true);
+
+    Iterator<IStrategoTerm> nodes = Arrays.asList(encoded.getSubterm(3).getAllSubterms()).iterator();
+    IStrategoTerm term = decodeNodes(encoded.getSubterm(0), nodes, tokenizer, firstToken);
+    int consumed = Term.asJavaInt(encoded.getSubterm(1));
+    return Pair.create(term, consumed);
+  }
+
+  /**
+   * Rebuilds the term, since binary terms may share subterms that need distinct origins.
+   */
+  private static IStrategoTerm decodeNodes(IStrategoTerm term, Iterator<IStrategoTerm> nodes, ITokenizer tokenizer, int firstToken) {
+    IStrategoTerm node = nodes.next();
+
+    IStrategoTerm[] kids = new IStrategoTerm[term.getSubtermCount()];
+    for (int i = 0; i < kids.length; i++)
+      kids[i] = decodeNodes(term.getSubterm(i), nodes, tokenizer, firstToken);
+
+    IStrategoTerm result;
+    switch (term.getTermType()) {
+    case IStrategoTerm.APPL:
+      result = ATermCommands.factory.makeAppl(((IStrategoAppl) term).getConstructor(), kids);
+      break;
+    case IStrategoTerm.LIST:
+      result = ATermCommands.factory.makeList(kids);
+      break;
+    case IStrategoTerm.TUPLE:
+      result = ATermCommands.factory.makeTuple(kids);
+      break;
+    case IStrategoTerm.STRING:
+      result = ATermCommands.factory.makeString(Term.asJavaString(term));
+      break;
+    default:
+      result = term;
+    }
+    if (!term.getAnnotations().isEmpty())
+      result = ATermCommands.factory.annotateTerm(result, term.getAnnotations());
+
+    if (node.getSubtermCount() == 3) {
+      IToken left = tokenizer.getTokenAt(firstToken + Term.asJavaInt(node.getSubterm(0)));
+      IToken right = tokenizer.getTokenAt(firstToken + Term.asJavaInt(node.getSubterm(1)));
+      String sort = Term.asJavaString(node.getSubterm(2));
+      ImploderAttachment.putImploderAttachment(result, false, sort.isEmpty() ? null : sort, left, right);
+    }
+
+    return result;
+  }
+}
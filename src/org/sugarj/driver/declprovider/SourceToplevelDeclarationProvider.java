@@ -24,23 +24,39 @@ import org.sugarj.driver.Driver;
 import org.sugarj.driver.IncrementalParseResult;
 import org.sugarj.driver.RetractableTokenizer;
 import org.sugarj.driver.RetractableTreeBuilder;
+import org.sugarj.driver.caching.Digests;
+import org.sugarj.driver.caching.TermCache;
+import org.sugarj.util.StructuredLog;
 
 public class SourceToplevelDeclarationProvider implements ToplevelDeclarationProvider {
   private static final long serialVersionUID = -6355762916686390330L;
   
   private String lastRemainingInput;
   private String remainingInput;
+  private int sourceLength;
   private transient Driver driver;
   private transient RetractableTreeBuilder treeBuilder;
+  
+  private transient TermCache parseCache;
+  private transient String sourceDigest;
 
   public SourceToplevelDeclarationProvider(String source, Path sourceFile) {
     this.remainingInput = source;
+    this.sourceLength = source.length();
     this.treeBuilder = new RetractableTreeBuilder();
   }
   
   public void setDriver(Driver driver) {
     this.driver = driver;
   }
+  
+  /**
+   * Enables caching of parse results. Must be called before the first declaration is parsed.
+   */
+  public void setParseCache(TermCache parseCache) {
+    this.parseCache = parseCache;
+    this.sourceDigest = Digests.digest(remainingInput);
+  }
 
   @Override
   public IStrategoTerm getNextToplevelDecl(boolean recovery, boolean lookahead) throws IOException, ParseException, InvalidParseTableException, SGLRException {
@@ -53,18 +69,29 @@ public class SourceToplevelDeclarationProvider implements ToplevelDeclarationPro
   private IncrementalParseResult parseNextToplevelDeclaration(String input, boolean recovery, boolean lookahead)
       throws IOException, ParseException, InvalidParseTableException, TokenExpectedException, SGLRException {
     int start = treeBuilder.getTokenizer() == null ? 0 : treeBuilder.getTokenizer().getStartOffset();
-    log.beginTask("parsing", "PARSE next toplevel declaration.", Log.CORE);
+    boolean task = StructuredLog.beginTask("parsing", Log.CORE, "PARSE next toplevel declaration.");
     try {
       Pair<IStrategoTerm, Integer> parseResult = null;
       
-      try {
-        parseResult = driver.currentParse(input, treeBuilder, recovery);
-      } catch (SGLRException e) {
-        if (e.getCause() instanceof TimeoutException)
-          parseResult = driver.currentParse(input, treeBuilder, false);
+      String cacheKey = parseCacheKey(start, recovery);
+      if (cacheKey != null)
+        parseResult = lookupParse(cacheKey, input, start);
+      
+      if (parseResult == null) {
+        int firstToken = treeBuilder.getTokenizer() == null ? 0 : treeBuilder.getTokenizer().getTokenCount();
         
-        if (parseResult == null)
-          throw e;
+        try {
+          parseResult = driver.currentParse(input, treeBuilder, recovery);
+        } catch (SGLRException e) {
+          if (e.getCause() instanceof TimeoutException)
+            parseResult = driver.currentParse(input, treeBuilder, false);
+          
+          if (parseResult == null)
+            throw e;
+        }
+        
+        if (cacheKey != null && parseResult != null && parseResult.a != null && driver.getParser().getCollectedErrors().isEmpty())
+          storeParse(cacheKey, parseResult, firstToken, start);
       }
 
       if (parseResult == null || parseResult.a == null)
@@ -86,9 +113,11 @@ public class SourceToplevelDeclarationProvider implements ToplevelDeclarationPro
 //        t.printStackTrace();
 //      }
       
-      Path tmpFile = FileCommands.newTempFile("aterm");
-      FileCommands.writeToFile(tmpFile, toplevelDecl.toString());
-      log.log("next toplevel declaration parsed: " + tmpFile, Log.PARSE);
+      if (StructuredLog.isLogging(Log.PARSE)) {
+        Path tmpFile = FileCommands.newTempFile("aterm");
+        FileCommands.writeToFile(tmpFile, toplevelDecl.toString());
+        StructuredLog.log(Log.PARSE, "next toplevel declaration parsed", "file", tmpFile);
+      }
 
       return new IncrementalParseResult(toplevelDecl, rest);
     } catch (Exception e) {
@@ -126,10 +155,43 @@ public class SourceToplevelDeclarationProvider implements ToplevelDeclarationPro
         driver.setErrorMessage(term, msg);
       return new IncrementalParseResult(term, "");
     } finally {
-      log.endTask();
+      StructuredLog.endTask(task);
     }
   }
 
+  /**
+   * The parse of a declaration only depends on the parse table,
+   * the source text, and the offset at which the parse starts.
+   * The parse table is identified by the digest of its module key.
+   */
+  private String parseCacheKey(int start, boolean recovery) throws IOException, InvalidParseTableException, SGLRException {
+    if (parseCache == null)
+      return null;
+    return Digests.digest(driver.currentParseTableDigest() + ";" + sourceDigest + ";" + start + ";" + recovery);
+  }
+  
+  private Pair<IStrategoTerm, Integer> lookupParse(String key, String input, int start) throws IOException, InvalidParseTableException {
+    IStrategoTerm cached = parseCache.get(key);
+    if (cached == null)
+      return null;
+    
+    if (!treeBuilder.isInitialized()) {
+      treeBuilder.initializeTable(ATermCommands.parseTableManager.loadFromFile(driver.currentParseTable().getAbsolutePath()), 0, 0, 0);
+      treeBuilder.initializeInput(input, null);
+    }
+    
+    Pair<IStrategoTerm, Integer> parseResult = CachedParses.decode(cached, treeBuilder.getTokenizer(), start);
+    treeBuilder.setOffset(treeBuilder.getTokenizer().getStartOffset());
+    StructuredLog.log(Log.CACHING, "reuse cached parse of toplevel declaration");
+    return parseResult;
+  }
+  
+  private void storeParse(String key, Pair<IStrategoTerm, Integer> parseResult, int firstToken, int start) throws IOException {
+    IStrategoTerm encoded = CachedParses.encode(parseResult, treeBuilder.getTokenizer(), firstToken, start);
+    if (encoded != null)
+      parseCache.put(key, encoded);
+  }
+
   @Override
   public void retract(IStrategoTerm term) {
     if (lastRemainingInput == null)
@@ -142,6 +204,13 @@ public class SourceToplevelDeclarationProvider implements ToplevelDeclarationPro
     }
   }
 
+  /**
+   * @return the offset in the source at which the next toplevel declaration starts.
+   */
+  public int getOffset() {
+    return sourceLength - remainingInput.length();
+  }
+
   @Override
   public boolean hasNextToplevelDecl() {
     return !remainingInput.isEmpty();
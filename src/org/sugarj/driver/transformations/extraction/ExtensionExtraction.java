@@ -0,0 +1,91 @@
+package org.sugarj.driver.transformations.extraction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.strategoxt.lang.Context;
+import org.strategoxt.lang.Strategy;
+import org.strategoxt.lang.StrategoExit;
+import org.sugarj.driver.SugarJContexts;
+
+/**
+ * Extracts the SDF, Stratego, and editor-service fragments of an extension
+ * body in a single traversal, equivalent to applying `extract-sdf`,
+ * `extract-str`, and `extract-editor` separately.
+ *
+ * Like `extract(s)`, each extractor stops descending into a subterm once it
+ * accepted the subterm; the traversal continues into the subterm as long as
+ * any extractor did not accept it.
+ */
+public class ExtensionExtraction {
+
+  private static final int SDF = 0;
+  private static final int STR = 1;
+  private static final int EDITOR = 2;
+
+  /*
+   * element strategies passed to `extract` by extract-sdf, extract-str, and extract-editor
+   */
+  private static final Strategy[] acceptors = new Strategy[] {lifted5.instance, lifted9.instance, lifted13.instance};
+
+  public final IStrategoTerm sdf;
+  public final IStrategoTerm str;
+  public final IStrategoTerm editor;
+
+  private ExtensionExtraction(IStrategoTerm sdf, IStrategoTerm str, IStrategoTerm editor) {
+    this.sdf = sdf;
+    this.str = str;
+    this.editor = editor;
+  }
+
+  /**
+   * @param body a list of extension elements.
+   */
+  public static ExtensionExtraction extract(IStrategoTerm body) {
+    if (body.getTermType() != IStrategoTerm.LIST)
+      return new ExtensionExtraction(null, null, null);
+
+    Context context = SugarJContexts.extractionContext();
+    try {
+      @SuppressWarnings("unchecked")
+      List<IStrategoTerm>[] results = new List[] {new ArrayList<IStrategoTerm>(), new ArrayList<IStrategoTerm>(), new ArrayList<IStrategoTerm>()};
+      boolean[] active = new boolean[] {true, true, true};
+
+      for (IStrategoTerm elem : body.getAllSubterms())
+        extract(context, elem, active, results);
+
+      return new ExtensionExtraction(
+          context.getFactory().makeList(results[SDF]),
+          context.getFactory().makeList(results[STR]),
+          context.getFactory().makeList(results[EDITOR]));
+    } catch (StrategoExit e) {
+      throw new RuntimeException("Stratego extraction failed", e);
+    } finally {
+      SugarJContexts.releaseContext(context);
+    }
+  }
+
+  private static void extract(Context context, IStrategoTerm term, boolean[] active, List<IStrategoTerm>[] results) {
+    boolean[] descend = new boolean[active.length];
+    boolean any = false;
+
+    for (int i = 0; i < acceptors.length; i++) {
+      if (!active[i])
+        continue;
+
+      IStrategoTerm accepted = acceptors[i].invoke(context, term);
+      if (accepted != null)
+        for (IStrategoTerm t : accepted.getAllSubterms())
+          results[i].add(t);
+      else {
+        descend[i] = true;
+        any = true;
+      }
+    }
+
+    if (any)
+      for (int k = 0; k < term.getSubtermCount(); k++)
+        extract(context, term.getSubterm(k), descend, results);
+  }
+}
@@ -1,17 +1,19 @@
 package org.sugarj.driver.transformations.primitive;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.spoofax.interpreter.core.IContext;
 import org.spoofax.interpreter.core.InterpreterException;
 import org.spoofax.interpreter.library.AbstractPrimitive;
 import org.spoofax.interpreter.stratego.Strategy;
 import org.spoofax.interpreter.terms.IStrategoTerm;
-import org.sugarj.common.ATermCommands;
 import org.sugarj.common.path.RelativePath;
 import org.sugarj.driver.Environment;
 import org.sugarj.driver.ImportCommands;
 import org.sugarj.driver.ModuleSystemCommands;
+import org.sugarj.driver.caching.ModelCache;
 
 /**
  * Primitive for looking up and loading a model according to the current environment.
@@ -24,6 +26,43 @@ class ResolveModelImport extends AbstractPrimitive {
   private ImportCommands imp;
   private Environment environment;
   
+  /**
+   * Module paths of import terms seen during this build.
+   */
+  private final Map<IStrategoTerm, String> modulePaths = new HashMap<>();
+  
+  /**
+   * Models resolved during this build, by module path.
+   * Only successful resolutions are cached, since models may be generated later in the build.
+   * Resolutions are dropped when models or generated files are written, since these may
+   * shadow the resolved model.
+   */
+  private final Map<String, ResolvedModel> models = new HashMap<>();
+  
+  private int hits;
+  private int misses;
+  
+  private static class ResolvedModel {
+    final RelativePath path;
+    final long lastModified;
+    final long length;
+    final long outputGeneration;
+    final IStrategoTerm term;
+    
+    ResolvedModel(RelativePath path, long outputGeneration, IStrategoTerm term) {
+      this.path = path;
+      this.lastModified = path.getFile().lastModified();
+      this.length = path.getFile().length();
+      this.outputGeneration = outputGeneration;
+      this.term = term;
+    }
+    
+    boolean isValid() {
+      return outputGeneration == ModelCache.getOutputGeneration() &&
+             path.getFile().lastModified() == lastModified && path.getFile().length() == length;
+    }
+  }
+  
   public ResolveModelImport(ImportCommands imp, Environment environment) {
     super("SUGARJ_resolve_model_import", 0, 0);
     this.imp = imp;
@@ -34,29 +73,51 @@ class ResolveModelImport extends AbstractPrimitive {
   public boolean call(IContext context, Strategy[] svars, IStrategoTerm[] tvars) throws InterpreterException {
     IStrategoTerm importTerm = context.current();
     
-    String modulePath = imp.computeModulePathOfImport(importTerm);
+    String modulePath = modulePaths.get(importTerm);
+    if (modulePath == null) {
+      modulePath = imp.computeModulePathOfImport(importTerm);
+      if (modulePath != null)
+        modulePaths.put(importTerm, modulePath);
+    }
 
     if (modulePath == null) {
       org.strategoxt.imp.runtime.Environment.logException("Look up of module failed, not an import declaration: " + importTerm);
       return false;
     }
     
+    ResolvedModel resolved = models.get(modulePath);
+    if (resolved != null && resolved.isValid()) {
+      hits++;
+      context.setCurrent(resolved.term);
+      return true;
+    }
+    misses++;
+    
+    long outputGeneration = ModelCache.getOutputGeneration();
     RelativePath importModelPath = ModuleSystemCommands.importModel(modulePath, environment, null);
     if (importModelPath == null) {
 //      driver.setErrorMessage("Warning: Look up of module failed, cannot locate model: " + resolve.a);
+      models.remove(modulePath);
       return false;
     }
     
     IStrategoTerm model;
     try {
-      model = ATermCommands.atermFromFile(importModelPath.getAbsolutePath());
+      model = ModelCache.read(importModelPath, environment.getStamper().stampOf(importModelPath));
     } catch (IOException e) {
       throw new InterpreterException(e);
     }  
 
+    models.put(modulePath, new ResolvedModel(importModelPath, outputGeneration, model));
     context.setCurrent(model);
     return true;
   }
   
+  public int getHits() {
+    return hits;
+  }
+  
+  public int getMisses() {
+    return misses;
+  }
 }
- 
\ No newline at end of file
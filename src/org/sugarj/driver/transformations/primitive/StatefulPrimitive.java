@@ -0,0 +1,29 @@
+package org.sugarj.driver.transformations.primitive;
+
+import org.spoofax.interpreter.core.IContext;
+import org.spoofax.interpreter.core.InterpreterException;
+import org.spoofax.interpreter.library.AbstractPrimitive;
+import org.spoofax.interpreter.stratego.Strategy;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+
+/**
+ * Marks calls to a primitive whose result depends on the state of the driver,
+ * such that results of strategies that called it are not memoized.
+ */
+class StatefulPrimitive extends AbstractPrimitive {
+
+  private final AbstractPrimitive delegate;
+  private final SugarJPrimitivesLibrary library;
+  
+  public StatefulPrimitive(AbstractPrimitive delegate, SugarJPrimitivesLibrary library) {
+    super(delegate.getName(), delegate.getSArity(), delegate.getTArity());
+    this.delegate = delegate;
+    this.library = library;
+  }
+
+  @Override
+  public boolean call(IContext context, Strategy[] svars, IStrategoTerm[] tvars) throws InterpreterException {
+    library.statefulPrimitiveCalled = true;
+    return delegate.call(context, svars, tvars);
+  }
+}
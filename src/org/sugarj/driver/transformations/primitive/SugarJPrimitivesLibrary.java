@@ -1,5 +1,6 @@
 package org.sugarj.driver.transformations.primitive;
 
+import org.spoofax.interpreter.library.AbstractPrimitive;
 import org.spoofax.interpreter.library.AbstractStrategoOperatorRegistry;
 import org.sugarj.driver.Driver;
 import org.sugarj.driver.ImportCommands;
@@ -13,24 +14,49 @@ public class SugarJPrimitivesLibrary extends AbstractStrategoOperatorRegistry {
 
   public static final String REGISTRY_NAME = "SUGARJ";
   
+  private final ResolveModelImport resolveModelImport;
+  
+  /**
+   * Set when a primitive that depends on the state of the driver is called.
+   */
+  boolean statefulPrimitiveCalled;
+  
   public SugarJPrimitivesLibrary(Driver driver, ImportCommands importCommands) {
-    add(new IsLastToplevelDeclaration(driver));
-    add(new GeneratePPTable(driver));
-    add(new PrettyPrint(driver));
+    addStateful(new IsLastToplevelDeclaration(driver));
+    addStateful(new GeneratePPTable(driver));
+    addStateful(new PrettyPrint(driver));
     add(new ATermToString());
 //    add(new CurrentPackage(driver));
 //    add(new CurrentModule(driver));
 //    add(new CurrentImports(driver));
 //    add(new CurrentRenamings(driver.getParameters()));
-    add(new ResolveModelImport(importCommands, driver.getEnvironment()));
-    add(new CurrentTransformationName(importCommands));
-    add(new CurrentModelName(importCommands));
+    resolveModelImport = new ResolveModelImport(importCommands, driver.getEnvironment());
+    addStateful(resolveModelImport);
+    addStateful(new CurrentTransformationName(importCommands));
+    addStateful(new CurrentModelName(importCommands));
 //    add(new CompileTransformed(driver, environment));
 //    add(new WriteTransformed(driver, environment));
   }
   
+  private void addStateful(AbstractPrimitive prim) {
+    add(new StatefulPrimitive(prim, this));
+  }
+  
+  /**
+   * @return true iff a primitive that depends on the state of the driver was called since the last reset.
+   */
+  public boolean resetStatefulPrimitiveCalled() {
+    boolean called = statefulPrimitiveCalled;
+    statefulPrimitiveCalled = false;
+    return called;
+  }
+  
   @Override
   public String getOperatorRegistryName() {
     return REGISTRY_NAME;
   }
+  
+  public String getStatistics() {
+    return "model imports resolved from cache: " + resolveModelImport.getHits() + ", resolved from disk: " + resolveModelImport.getMisses();
+  }
 }
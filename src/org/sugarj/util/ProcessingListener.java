@@ -1,6 +1,6 @@
 package org.sugarj.util;
 
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -17,20 +17,20 @@ public abstract class ProcessingListener {
   public abstract void processingDone(BuildUnit<Result> result);
   
   public static void notifyProcessingStarts(Object owner, List<ProcessingListener> listeners, Set<RelativePath> sourceFiles) {
-    Iterator<ProcessingListener> it;
+    List<ProcessingListener> snapshot;
     synchronized (owner) {
-      it = listeners.iterator();
+      snapshot = new ArrayList<ProcessingListener>(listeners);
     }
-    while (it.hasNext())
-      it.next().processingStarts(sourceFiles);
+    for (ProcessingListener listener : snapshot)
+      listener.processingStarts(sourceFiles);
   }
   
   public static void notifyProcessingDone(Object owner, List<ProcessingListener> listeners, BuildUnit<Result> result) {
-    Iterator<ProcessingListener> it;
+    List<ProcessingListener> snapshot;
     synchronized (owner) {
-      it = listeners.iterator();
+      snapshot = new ArrayList<ProcessingListener>(listeners);
     }
-    while (it.hasNext())
-      it.next().processingDone(result);
+    for (ProcessingListener listener : snapshot)
+      listener.processingDone(result);
   }
 }
@@ -0,0 +1,108 @@
+package org.sugarj.util;
+
+import static org.sugarj.common.Log.log;
+
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.sugarj.common.Log;
+
+/**
+ * Guarded logging for hot paths on top of org.sugarj.common.Log.
+ *
+ * Messages consist of an event and key-value fields. Field values are
+ * rendered only if the message's category is enabled, so a call for a
+ * disabled category neither concatenates strings nor renders terms.
+ * Tasks of disabled categories are not started at all.
+ *
+ * The logging level must be set through this class to keep the guards in
+ * sync with org.sugarj.common.Log. Until then, all categories are enabled.
+ */
+public final class StructuredLog {
+
+  private static volatile int level = -1;
+
+  private StructuredLog() {
+  }
+
+  public static void setLoggingLevel(int level) {
+    StructuredLog.level = level;
+    log.setLoggingLevel(level);
+  }
+
+  public static boolean isLogging(int category) {
+    return category == Log.ALWAYS || (level & category) != 0;
+  }
+
+  public static void log(int category, String event) {
+    if (isLogging(category))
+      log.log(event, category);
+  }
+
+  public static void log(int category, String event, String key, Object value) {
+    if (isLogging(category))
+      log.log(format(event, key, value, null, null), category);
+  }
+
+  public static void log(int category, String event, String key1, Object value1, String key2, Object value2) {
+    if (isLogging(category))
+      log.log(format(event, key1, value1, key2, value2), category);
+  }
+
+  /**
+   * @return true iff the task was started; to be passed to `endTask`.
+   */
+  public static boolean beginTask(String shortText, int category, String event) {
+    if (!isLogging(category))
+      return false;
+    log.beginTask(shortText, event, category);
+    return true;
+  }
+
+  /**
+   * @return true iff the task was started; to be passed to `endTask`.
+   */
+  public static boolean beginTask(String shortText, int category, String event, String key, Object value) {
+    if (!isLogging(category))
+      return false;
+    log.beginTask(shortText, format(event, key, value, null, null), category);
+    return true;
+  }
+
+  /**
+   * @return true iff the task was started; to be passed to `endTask`.
+   */
+  public static boolean beginTask(String shortText, int category, String event, String key1, Object value1, String key2, Object value2) {
+    if (!isLogging(category))
+      return false;
+    log.beginTask(shortText, format(event, key1, value1, key2, value2), category);
+    return true;
+  }
+
+  public static void endTask(boolean started) {
+    if (started)
+      log.endTask();
+  }
+
+  public static void endTask(boolean started, boolean success) {
+    if (started)
+      log.endTask(success);
+  }
+
+  private static String format(String event, String key1, Object value1, String key2, Object value2) {
+    StringBuilder sb = new StringBuilder(event);
+    append(sb, key1, value1);
+    if (key2 != null)
+      append(sb, key2, value2);
+    return sb.toString();
+  }
+
+  private static void append(StringBuilder sb, String key, Object value) {
+    sb.append(' ').append(key).append('=');
+    if (value instanceof IStrategoAppl)
+      sb.append(((IStrategoAppl) value).getName());
+    else if (value instanceof IStrategoTerm)
+      sb.append(((IStrategoTerm) value).toString(0));
+    else
+      sb.append(value);
+  }
+}